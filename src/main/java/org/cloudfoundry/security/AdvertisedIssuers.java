@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Selects the issuers that a trust manager advertises, e.g. in the {@code certificate_authorities} of a TLS {@code CertificateRequest}.  The {@value #ADVERTISED} system property is one of
+ * {@code all} (the default), {@code container} for the issuers of the watched container trust managers, {@code system} for the issuers of the other trust managers, {@code none}, or the path
+ * of a PEM file containing the issuers to advertise.  Which issuers are advertised has no effect on which chains are trusted.
+ */
+final class AdvertisedIssuers {
+
+    static final String ADVERTISED = "org.cloudfoundry.security.trustmanager.advertised.issuers";
+
+    private static final String DEFAULT_ADVERTISED = "all";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final X509Certificate[] configured;
+
+    private final String mode;
+
+    AdvertisedIssuers() {
+        this(SystemProperties.getString(ADVERTISED, DEFAULT_ADVERTISED));
+    }
+
+    AdvertisedIssuers(String value) {
+        switch (value) {
+            case "all":
+            case "container":
+            case "none":
+            case "system":
+                this.configured = null;
+                this.mode = value;
+                break;
+            default:
+                this.configured = read(value);
+                this.mode = this.configured != null ? "configured" : DEFAULT_ADVERTISED;
+        }
+    }
+
+    /**
+     * Returns the issuers to advertise from a configured PEM file, or {@code null} if the issuers are selected from the trust managers.
+     */
+    X509Certificate[] getConfigured() {
+        return this.configured;
+    }
+
+    /**
+     * Returns the issuers of {@code trustManager} to advertise, or {@code null} if none.  A {@link UnifiedX509ExtendedTrustManager} contributes the issuers of its container and system sides
+     * separately.
+     */
+    X509Certificate[] select(X509TrustManager trustManager) {
+        switch (this.mode) {
+            case "all":
+                return trustManager.getAcceptedIssuers();
+            case "container":
+                if (trustManager instanceof UnifiedX509ExtendedTrustManager) {
+                    return ((UnifiedX509ExtendedTrustManager) trustManager).getContainerTrustManager().getAcceptedIssuers();
+                }
+
+                return trustManager instanceof FileWatchingX509ExtendedTrustManager ? trustManager.getAcceptedIssuers() : null;
+            case "system":
+                if (trustManager instanceof UnifiedX509ExtendedTrustManager) {
+                    return ((UnifiedX509ExtendedTrustManager) trustManager).getSystemTrustManager().getAcceptedIssuers();
+                }
+
+                return trustManager instanceof FileWatchingX509ExtendedTrustManager ? null : trustManager.getAcceptedIssuers();
+            default:
+                return null;
+        }
+    }
+
+    private X509Certificate[] read(String path) {
+        try {
+            List<X509Certificate> certificates = X509CertificateFactory.generate(Paths.get(path));
+            this.logger.info(String.format("Advertising %d issuers from %s", certificates.size(), path));
+            return certificates.toArray(new X509Certificate[certificates.size()]);
+        } catch (CertificateException | IOException | RuntimeException e) {
+            this.logger.log(Level.WARNING, String.format("Unable to read advertised issuers from %s, advertising all issuers", path), e);
+            return null;
+        }
+    }
+
+}
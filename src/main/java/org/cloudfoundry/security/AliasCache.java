@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded memo of the alias selections and certificate chains of a single generation of a key manager.  Selections are keyed on the direction, the key types and the issuers, and negative
+ * selections are remembered as well.  Because a generation's key material never changes, the cache is discarded with the generation rather than invalidated.  Chosen aliases are returned with
+ * the generation's prefix, and prefixed aliases are accepted when looking up certificate chains.
+ * <p>
+ * Key managers such as {@code NewSunX509} also reject candidates against the algorithm constraints and requested server names of the handshake session.  For a session-dependent key manager,
+ * selections made for an {@link SSLEngine} or {@link SSLSocket} are therefore kept apart from the others, and only remembered when they are negative because the generation has no alias for
+ * the key types and issuers at all.
+ */
+final class AliasCache {
+
+    private static final int MAXIMUM_SIZE = 256;
+
+    private static final Object NONE = new Object();
+
+    private final ConcurrentMap<Key, Object> aliases = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, X509Certificate[]> chains = new ConcurrentHashMap<>();
+
+    private final X509ExtendedKeyManager keyManager;
+
+    private final String prefix;
+
+    private final boolean sessionDependent;
+
+    AliasCache(X509ExtendedKeyManager keyManager) {
+        this(keyManager, "", true);
+    }
+
+    AliasCache(X509ExtendedKeyManager keyManager, String prefix, boolean sessionDependent) {
+        this.keyManager = keyManager;
+        this.prefix = prefix;
+        this.sessionDependent = sessionDependent;
+    }
+
+    String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket, SSLEngine sslEngine) {
+        boolean session = isSession(socket, sslEngine);
+        Key key = new Key(false, session, null, keyTypes, issuers);
+
+        Object cached = this.aliases.get(key);
+        if (cached != null) {
+            return cached == NONE ? null : (String) cached;
+        }
+
+        String alias = sslEngine != null ? this.keyManager.chooseEngineClientAlias(keyTypes, issuers, sslEngine) : this.keyManager.chooseClientAlias(keyTypes, issuers, socket);
+        if (!session || (alias == null && hasNoClientAliases(keyTypes, issuers))) {
+            put(key, alias);
+        }
+
+        return alias != null ? this.prefix + alias : null;
+    }
+
+    String chooseServerAlias(String keyType, Principal[] issuers, Socket socket, SSLEngine sslEngine) {
+        boolean session = isSession(socket, sslEngine);
+        Key key = new Key(true, session, keyType, null, issuers);
+
+        Object cached = this.aliases.get(key);
+        if (cached != null) {
+            return cached == NONE ? null : (String) cached;
+        }
+
+        String alias = sslEngine != null ? this.keyManager.chooseEngineServerAlias(keyType, issuers, sslEngine) : this.keyManager.chooseServerAlias(keyType, issuers, socket);
+        if (!session || (alias == null && this.keyManager.getServerAliases(keyType, issuers) == null)) {
+            put(key, alias);
+        }
+
+        return alias != null ? this.prefix + alias : null;
+    }
+
+    /**
+     * Returns a copy of the certificate chain for {@code alias}.  The cached chain itself is never handed out, so callers cannot modify it.
+     */
+    X509Certificate[] getCertificateChain(String alias) {
+        if (alias == null) {
+            return this.keyManager.getCertificateChain(null);
+        }
+
+        X509Certificate[] chain = this.chains.get(alias);
+        if (chain == null) {
+            chain = this.keyManager.getCertificateChain(alias.startsWith(this.prefix) ? alias.substring(this.prefix.length()) : alias);
+            if (chain == null) {
+                return null;
+            }
+
+            if (this.chains.size() < MAXIMUM_SIZE) {
+                this.chains.putIfAbsent(alias, chain.clone());
+            }
+        }
+
+        return chain.clone();
+    }
+
+    private boolean hasNoClientAliases(String[] keyTypes, Principal[] issuers) {
+        if (keyTypes == null) {
+            return true;
+        }
+
+        for (String keyType : keyTypes) {
+            if (this.keyManager.getClientAliases(keyType, issuers) != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns whether a selection for {@code socket} or {@code sslEngine} may depend on the handshake session.
+     */
+    private boolean isSession(Socket socket, SSLEngine sslEngine) {
+        return this.sessionDependent && (sslEngine != null || socket instanceof SSLSocket);
+    }
+
+    private void put(Key key, String alias) {
+        if (this.aliases.size() < MAXIMUM_SIZE) {
+            this.aliases.putIfAbsent(key.copy(), alias != null ? this.prefix + alias : NONE);
+        }
+    }
+
+    private static final class Key {
+
+        private final int hashCode;
+
+        private final Principal[] issuers;
+
+        private final String keyType;
+
+        private final String[] keyTypes;
+
+        private final boolean server;
+
+        private final boolean session;
+
+        private Key(boolean server, boolean session, String keyType, String[] keyTypes, Principal[] issuers) {
+            this.server = server;
+            this.session = session;
+            this.keyType = keyType;
+            this.keyTypes = keyTypes;
+            this.issuers = issuers;
+            this.hashCode = 31 * (31 * (31 * (31 * Boolean.hashCode(server) + Boolean.hashCode(session)) + Objects.hashCode(keyType)) + Arrays.hashCode(keyTypes)) + Arrays.hashCode(issuers);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.hashCode == key.hashCode &&
+                this.server == key.server &&
+                this.session == key.session &&
+                Objects.equals(this.keyType, key.keyType) &&
+                Arrays.equals(this.keyTypes, key.keyTypes) &&
+                Arrays.equals(this.issuers, key.issuers);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        private Key copy() {
+            return new Key(this.server, this.session, this.keyType, this.keyTypes != null ? this.keyTypes.clone() : null, this.issuers != null ? this.issuers.clone() : null);
+        }
+
+    }
+
+}
@@ -32,69 +32,99 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.UnrecoverableKeyException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
+/**
+ * A key manager factory that delegates to the system key manager and to a key manager for the container's identity.  The container key managers are shared across the process, one per set of
+ * locations.  Each factory resolves its container key manager once, and hands out the same delegating key manager for as long as its system and container key managers are unchanged, so that
+ * repeated calls to {@link #engineGetKeyManagers()} take no locks and touch no files.
+ */
 abstract class CloudFoundryContainerKeyManagerFactory extends KeyManagerFactorySpi {
 
+    static final String IDENTITIES = "org.cloudfoundry.security.keymanager.identities";
+
     private static final String CERTIFICATES_PROPERTY = "CF_INSTANCE_CERT";
 
-    private static final Object MONITOR = new Object();
+    private static final ConcurrentMap<List<Path>, FileWatchingX509ExtendedKeyManager> CONTAINER_KEY_MANAGERS = new ConcurrentHashMap<>();
 
     private static final String PRIVATE_KEY_PROPERTY = "CF_INSTANCE_KEY";
 
-    private static FileWatchingX509ExtendedKeyManager CACHED_CONTAINER_KEY_MANAGER;
-
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
     private final String algorithm;
 
     private final Path certificates;
 
+    private final Path identities;
+
     private final Path privateKey;
 
     private final KeyManagerFactory systemKeyManagerFactory;
 
-    private X509ExtendedKeyManager cachedSystemKeyManager;
+    private volatile FileWatchingX509ExtendedKeyManager containerKeyManager;
+
+    private volatile boolean containerKeyManagerResolved;
+
+    private volatile Delegating delegating;
+
+    private volatile SystemKeyManager systemKeyManager;
 
     private CloudFoundryContainerKeyManagerFactory(String algorithm, Path certificates, Path privateKey) {
         this.algorithm = algorithm;
         this.certificates = certificates;
         this.privateKey = privateKey;
+        this.identities = getIdentities();
         this.systemKeyManagerFactory = getKeyManagerFactory();
 
         this.logger.fine(String.format("Algorithm: %s", algorithm));
         this.logger.fine(String.format("Certificates: %s", certificates));
         this.logger.fine(String.format("Private Key: %s", privateKey));
+        this.logger.fine(String.format("Identities: %s", this.identities));
     }
 
+    /**
+     * Returns a copy of the delegating key manager for the current system and container key managers, building it only when either of them has changed.
+     */
     @Override
     protected final KeyManager[] engineGetKeyManagers() {
-        List<X509ExtendedKeyManager> delegates = new ArrayList<>();
-
-        X509ExtendedKeyManager systemKeyManager = getSystemKeyManager();
-        if (systemKeyManager != null) {
-            delegates.add(systemKeyManager);
-        }
-
+        SystemKeyManager systemKeyManager = getSystemKeyManager();
         FileWatchingX509ExtendedKeyManager containerKeyManager = getContainerKeyManager();
-        if (containerKeyManager != null) {
-            delegates.add(containerKeyManager);
+        Delegating delegating = this.delegating;
+
+        if (delegating == null || delegating.systemKeyManager != systemKeyManager || delegating.containerKeyManager != containerKeyManager) {
+            delegating = new Delegating(systemKeyManager, containerKeyManager, newKeyManagers(systemKeyManager, containerKeyManager));
+            this.delegating = delegating;
         }
 
-        return new KeyManager[]{new DelegatingX509ExtendedKeyManager(delegates)};
+        return delegating.keyManagers.clone();
     }
 
     @Override
     protected final void engineInit(ManagerFactoryParameters managerFactoryParameters) throws InvalidAlgorithmParameterException {
         this.systemKeyManagerFactory.init(managerFactoryParameters);
-        invalidateSystemKeyManager();
+        setSystemKeyManager(new SystemKeyManager(this.systemKeyManagerFactory.getKeyManagers()));
     }
 
+    /**
+     * Initializes the system key manager.  The key managers for an absent key store are shared across the process, rather than built again for each factory.
+     */
     @Override
     protected final void engineInit(KeyStore keyStore, char[] chars) throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
-        this.systemKeyManagerFactory.init(keyStore, chars);
-        invalidateSystemKeyManager();
+        if (keyStore == null) {
+            setSystemKeyManager(new SystemKeyManager(SharedSystemManagers.getKeyManagers(this.algorithm)));
+        } else {
+            this.systemKeyManagerFactory.init(keyStore, chars);
+            setSystemKeyManager(new SystemKeyManager(this.systemKeyManagerFactory.getKeyManagers()));
+        }
+    }
+
+    private static Path getIdentities() {
+        String candidate = SystemProperties.getString(IDENTITIES, null);
+        return candidate != null ? Paths.get(candidate) : null;
     }
 
     private static Path getProperty(String name) {
@@ -102,14 +132,54 @@ abstract class CloudFoundryContainerKeyManagerFactory extends KeyManagerFactoryS
         return candidate != null ? Paths.get(candidate) : null;
     }
 
+    /**
+     * Returns the container key manager, resolving it on first use.  Locations that do not exist at that point are not looked at again by this factory.
+     */
     private FileWatchingX509ExtendedKeyManager getContainerKeyManager() {
-        synchronized (MONITOR) {
-            if (CACHED_CONTAINER_KEY_MANAGER == null && this.certificates != null && Files.exists(this.certificates) && this.privateKey != null && Files.exists(this.privateKey)) {
-                this.logger.info(String.format("Adding Key Manager for %s and %s", this.privateKey, this.certificates));
-                CACHED_CONTAINER_KEY_MANAGER = new FileWatchingX509ExtendedKeyManager(this.certificates, this.privateKey, getKeyManagerFactory());
+        if (this.containerKeyManagerResolved) {
+            return this.containerKeyManager;
+        }
+
+        boolean pair = this.certificates != null && Files.exists(this.certificates) && this.privateKey != null && Files.exists(this.privateKey);
+        boolean identities = this.identities != null && Files.isDirectory(this.identities);
+
+        FileWatchingX509ExtendedKeyManager containerKeyManager = null;
+        if (pair || identities) {
+            containerKeyManager = getContainerKeyManager(pair ? this.certificates : null, pair ? this.privateKey : null, identities ? this.identities : null);
+        }
+
+        this.containerKeyManager = containerKeyManager;
+        this.containerKeyManagerResolved = true;
+        return containerKeyManager;
+    }
+
+    private FileWatchingX509ExtendedKeyManager getContainerKeyManager(Path certificates, Path privateKey, Path identities) {
+        List<Path> key = Arrays.asList(certificates, privateKey, identities);
+
+        FileWatchingX509ExtendedKeyManager containerKeyManager = CONTAINER_KEY_MANAGERS.get(key);
+        if (containerKeyManager != null) {
+            return containerKeyManager;
+        }
+
+        synchronized (CONTAINER_KEY_MANAGERS) {
+            containerKeyManager = CONTAINER_KEY_MANAGERS.get(key);
+
+            if (containerKeyManager == null) {
+                if (certificates != null && identities != null) {
+                    this.logger.info(String.format("Adding Key Manager for %s and %s, and %s", privateKey, certificates, identities));
+                } else if (certificates != null) {
+                    this.logger.info(String.format("Adding Key Manager for %s and %s", privateKey, certificates));
+                } else {
+                    this.logger.info(String.format("Adding Key Manager for %s", identities));
+                }
+
+                containerKeyManager = identities != null ?
+                    new FileWatchingX509ExtendedKeyManager(certificates, privateKey, identities, getKeyManagerFactory()) :
+                    new FileWatchingX509ExtendedKeyManager(certificates, privateKey, getKeyManagerFactory());
+                CONTAINER_KEY_MANAGERS.put(key, containerKeyManager);
             }
 
-            return CACHED_CONTAINER_KEY_MANAGER;
+            return containerKeyManager;
         }
     }
 
@@ -121,26 +191,37 @@ abstract class CloudFoundryContainerKeyManagerFactory extends KeyManagerFactoryS
         }
     }
 
-    private X509ExtendedKeyManager getSystemKeyManager() {
-        synchronized (MONITOR) {
-            if (this.cachedSystemKeyManager == null) {
-                for (KeyManager candidate : this.systemKeyManagerFactory.getKeyManagers()) {
-                    if (candidate instanceof X509ExtendedKeyManager) {
-                        this.logger.info("Adding System Key Manager");
-                        this.cachedSystemKeyManager = (X509ExtendedKeyManager) candidate;
-                        break;
-                    }
-                }
-            }
+    private SystemKeyManager getSystemKeyManager() {
+        SystemKeyManager systemKeyManager = this.systemKeyManager;
 
-            return this.cachedSystemKeyManager;
+        if (systemKeyManager == null) {
+            systemKeyManager = new SystemKeyManager(this.systemKeyManagerFactory.getKeyManagers());
+            setSystemKeyManager(systemKeyManager);
         }
+
+        return systemKeyManager;
     }
 
-    private void invalidateSystemKeyManager() {
-        synchronized (MONITOR) {
-            this.cachedSystemKeyManager = null;
+    private KeyManager[] newKeyManagers(SystemKeyManager systemKeyManager, FileWatchingX509ExtendedKeyManager containerKeyManager) {
+        List<X509ExtendedKeyManager> delegates = new ArrayList<>();
+
+        if (systemKeyManager.keyManager != null) {
+            delegates.add(systemKeyManager.keyManager);
         }
+
+        if (containerKeyManager != null) {
+            delegates.add(containerKeyManager);
+        }
+
+        return new KeyManager[]{new DelegatingX509ExtendedKeyManager(delegates)};
+    }
+
+    private void setSystemKeyManager(SystemKeyManager systemKeyManager) {
+        if (systemKeyManager.keyManager != null) {
+            this.logger.info("Adding System Key Manager");
+        }
+
+        this.systemKeyManager = systemKeyManager;
     }
 
     public static final class SunX509 extends CloudFoundryContainerKeyManagerFactory {
@@ -167,4 +248,40 @@ abstract class CloudFoundryContainerKeyManagerFactory extends KeyManagerFactoryS
 
     }
 
+    private static final class Delegating {
+
+        private final FileWatchingX509ExtendedKeyManager containerKeyManager;
+
+        private final KeyManager[] keyManagers;
+
+        private final SystemKeyManager systemKeyManager;
+
+        private Delegating(SystemKeyManager systemKeyManager, FileWatchingX509ExtendedKeyManager containerKeyManager, KeyManager[] keyManagers) {
+            this.systemKeyManager = systemKeyManager;
+            this.containerKeyManager = containerKeyManager;
+            this.keyManagers = keyManagers;
+        }
+
+    }
+
+    private static final class SystemKeyManager {
+
+        private final X509ExtendedKeyManager keyManager;
+
+        private SystemKeyManager(KeyManager[] candidates) {
+            this.keyManager = getKeyManager(candidates);
+        }
+
+        private static X509ExtendedKeyManager getKeyManager(KeyManager[] candidates) {
+            for (KeyManager candidate : candidates) {
+                if (candidate instanceof X509ExtendedKeyManager) {
+                    return (X509ExtendedKeyManager) candidate;
+                }
+            }
+
+            return null;
+        }
+
+    }
+
 }
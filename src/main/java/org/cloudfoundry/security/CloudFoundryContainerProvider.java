@@ -32,7 +32,7 @@ public final class CloudFoundryContainerProvider extends Provider {
 
     private static final long serialVersionUID = -2667509590306131953L;
 
-    private final Logger logger = Logger.getLogger(this.getClass().getName());
+    private final transient Logger logger = Logger.getLogger(this.getClass().getName());
 
     /**
      * Creates a new instance of the provider.  This registers the following components
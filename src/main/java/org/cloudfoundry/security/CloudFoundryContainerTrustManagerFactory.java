@@ -31,18 +31,29 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
+/**
+ * A trust manager factory that delegates to the system trust manager and to a trust manager for the container's CA certificates.  The container trust managers and revocation lists are shared
+ * across the process, one per location.  Each factory resolves its container trust manager once, and hands out the same delegating trust manager for as long as its system and container trust
+ * managers are unchanged, so that repeated calls to {@link #engineGetTrustManagers()} take no locks and touch no files.  Unified trust managers are shared as well, one per algorithm and
+ * location, and replaced when they are requested for a different pair of system and container trust managers.
+ */
 abstract class CloudFoundryContainerTrustManagerFactory extends TrustManagerFactorySpi {
 
     private static final String CA_CERTIFICATES_PROPERTY = "CF_CA_CERTS";
 
+    private static final ConcurrentMap<Path, FileWatchingX509ExtendedTrustManager> CONTAINER_TRUST_MANAGERS = new ConcurrentHashMap<>();
+
     private static final Path DEFAULT_CA_CERTIFICATES = Paths.get("/etc/ssl/certs/ca-certificates.crt");
 
-    private static final Object MONITOR = new Object();
+    private static final ConcurrentMap<Path, RevocationList> REVOCATION_LISTS = new ConcurrentHashMap<>();
 
-    private static FileWatchingX509ExtendedTrustManager CACHED_CONTAINER_TRUST_MANAGER;
+    private static final ConcurrentMap<List<Object>, UnifiedX509ExtendedTrustManager> UNIFIED_TRUST_MANAGERS = new ConcurrentHashMap<>();
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -52,7 +63,13 @@ abstract class CloudFoundryContainerTrustManagerFactory extends TrustManagerFact
 
     private final TrustManagerFactory systemTrustManagerFactory;
 
-    private X509ExtendedTrustManager cachedSystemTrustManager;
+    private volatile FileWatchingX509ExtendedTrustManager containerTrustManager;
+
+    private volatile boolean containerTrustManagerResolved;
+
+    private volatile Delegating delegating;
+
+    private volatile SystemTrustManager systemTrustManager;
 
     private CloudFoundryContainerTrustManagerFactory(String algorithm, Path certificates) {
         this.algorithm = algorithm;
@@ -63,33 +80,40 @@ abstract class CloudFoundryContainerTrustManagerFactory extends TrustManagerFact
         this.logger.fine(String.format("Certificates: %s", certificates));
     }
 
+    /**
+     * Returns a copy of the delegating trust manager for the current system and container trust managers, building it only when either of them has changed.
+     */
     @Override
     protected final TrustManager[] engineGetTrustManagers() {
-        List<X509ExtendedTrustManager> delegates = new ArrayList<>();
-
-        X509ExtendedTrustManager systemTrustManager = getSystemTrustManager();
-        if (systemTrustManager != null) {
-            delegates.add(systemTrustManager);
-        }
-
+        SystemTrustManager systemTrustManager = getSystemTrustManager();
         FileWatchingX509ExtendedTrustManager containerTrustManager = getContainerTrustManager();
-        if (containerTrustManager != null) {
-            delegates.add(containerTrustManager);
+        Delegating delegating = this.delegating;
+
+        if (delegating == null || delegating.systemTrustManager != systemTrustManager || delegating.containerTrustManager != containerTrustManager) {
+            delegating = new Delegating(systemTrustManager, containerTrustManager, newTrustManagers(systemTrustManager, containerTrustManager));
+            this.delegating = delegating;
         }
 
-        return new TrustManager[]{new DelegatingX509ExtendedTrustManager(delegates)};
+        return delegating.trustManagers.clone();
     }
 
     @Override
     protected final void engineInit(ManagerFactoryParameters managerFactoryParameters) throws InvalidAlgorithmParameterException {
         this.systemTrustManagerFactory.init(managerFactoryParameters);
-        invalidateSystemTrustManager();
+        setSystemTrustManager(new SystemTrustManager(this.systemTrustManagerFactory.getTrustManagers(), true));
     }
 
+    /**
+     * Initializes the system trust manager.  The trust managers for the default trust store are shared across the process, rather than read and parsed again for each factory.
+     */
     @Override
     protected final void engineInit(KeyStore keyStore) throws KeyStoreException {
-        this.systemTrustManagerFactory.init(keyStore);
-        invalidateSystemTrustManager();
+        if (keyStore == null) {
+            setSystemTrustManager(new SystemTrustManager(SharedSystemManagers.getTrustManagers(this.algorithm), false));
+        } else {
+            this.systemTrustManagerFactory.init(keyStore);
+            setSystemTrustManager(new SystemTrustManager(this.systemTrustManagerFactory.getTrustManagers(), false));
+        }
     }
 
     private static Path getCertificatesLocation() {
@@ -97,31 +121,74 @@ abstract class CloudFoundryContainerTrustManagerFactory extends TrustManagerFact
         return candidate != null ? Paths.get(candidate) : DEFAULT_CA_CERTIFICATES;
     }
 
+    /**
+     * Returns the container trust manager, resolving it on first use.  A location that does not exist at that point is not looked at again by this factory.
+     */
     private FileWatchingX509ExtendedTrustManager getContainerTrustManager() {
-        synchronized (MONITOR) {
-            if (CACHED_CONTAINER_TRUST_MANAGER == null && this.certificates != null && Files.exists(this.certificates)) {
-                this.logger.info(String.format("Adding TrustManager for %s", this.certificates));
-                CACHED_CONTAINER_TRUST_MANAGER = new FileWatchingX509ExtendedTrustManager(this.certificates, getTrustManagerFactory());
-            }
+        if (this.containerTrustManagerResolved) {
+            return this.containerTrustManager;
+        }
+
+        FileWatchingX509ExtendedTrustManager containerTrustManager = null;
+        if (this.certificates != null) {
+            containerTrustManager = CONTAINER_TRUST_MANAGERS.get(this.certificates);
 
-            return CACHED_CONTAINER_TRUST_MANAGER;
+            if (containerTrustManager == null && Files.exists(this.certificates)) {
+                synchronized (CONTAINER_TRUST_MANAGERS) {
+                    containerTrustManager = CONTAINER_TRUST_MANAGERS.get(this.certificates);
+
+                    if (containerTrustManager == null) {
+                        this.logger.info(String.format("Adding TrustManager for %s", this.certificates));
+                        containerTrustManager = new FileWatchingX509ExtendedTrustManager(this.certificates, getTrustManagerFactory());
+                        CONTAINER_TRUST_MANAGERS.put(this.certificates, containerTrustManager);
+                    }
+                }
+            }
         }
+
+        this.containerTrustManager = containerTrustManager;
+        this.containerTrustManagerResolved = true;
+        return containerTrustManager;
     }
 
-    private X509ExtendedTrustManager getSystemTrustManager() {
-        synchronized (MONITOR) {
-            if (this.cachedSystemTrustManager == null) {
-                for (TrustManager candidate : this.systemTrustManagerFactory.getTrustManagers()) {
-                    if (candidate instanceof X509ExtendedTrustManager) {
-                        this.logger.info("Adding System Trust Manager");
-                        this.cachedSystemTrustManager = (X509ExtendedTrustManager) candidate;
-                        break;
-                    }
+    private RevocationList getRevocationList() {
+        String location = SystemProperties.getString(RevocationList.LOCATION, null);
+        if (location == null) {
+            return null;
+        }
+
+        Path revocations = Paths.get(location);
+        RevocationList revocationList = REVOCATION_LISTS.get(revocations);
+
+        if (revocationList == null) {
+            if (!Files.exists(revocations)) {
+                this.logger.warning(String.format("Ignoring revocation list %s as it does not exist", revocations));
+                return null;
+            }
+
+            synchronized (REVOCATION_LISTS) {
+                revocationList = REVOCATION_LISTS.get(revocations);
+
+                if (revocationList == null) {
+                    this.logger.info(String.format("Adding revocation list for %s", revocations));
+                    revocationList = new RevocationList(revocations);
+                    REVOCATION_LISTS.put(revocations, revocationList);
                 }
             }
+        }
 
-            return this.cachedSystemTrustManager;
+        return revocationList;
+    }
+
+    private SystemTrustManager getSystemTrustManager() {
+        SystemTrustManager systemTrustManager = this.systemTrustManager;
+
+        if (systemTrustManager == null) {
+            systemTrustManager = new SystemTrustManager(this.systemTrustManagerFactory.getTrustManagers(), false);
+            setSystemTrustManager(systemTrustManager);
         }
+
+        return systemTrustManager;
     }
 
     private TrustManagerFactory getTrustManagerFactory() {
@@ -132,10 +199,64 @@ abstract class CloudFoundryContainerTrustManagerFactory extends TrustManagerFact
         }
     }
 
-    private void invalidateSystemTrustManager() {
-        synchronized (MONITOR) {
-            this.cachedSystemTrustManager = null;
+    /**
+     * Returns the unified trust manager for {@code systemTrustManager} and {@code containerTrustManager}, so that factories sharing both also share the merged anchors rather than each holding
+     * a copy of them.
+     */
+    private UnifiedX509ExtendedTrustManager getUnifiedTrustManager(X509ExtendedTrustManager systemTrustManager, FileWatchingX509ExtendedTrustManager containerTrustManager) {
+        List<Object> key = Arrays.<Object>asList(this.algorithm, this.certificates);
+        UnifiedX509ExtendedTrustManager unifiedTrustManager = UNIFIED_TRUST_MANAGERS.get(key);
+
+        if (unifiedTrustManager != null && unifiedTrustManager.getSystemTrustManager() == systemTrustManager && unifiedTrustManager.getContainerTrustManager() == containerTrustManager) {
+            return unifiedTrustManager;
+        }
+
+        synchronized (UNIFIED_TRUST_MANAGERS) {
+            unifiedTrustManager = UNIFIED_TRUST_MANAGERS.get(key);
+
+            if (unifiedTrustManager == null || unifiedTrustManager.getSystemTrustManager() != systemTrustManager || unifiedTrustManager.getContainerTrustManager() != containerTrustManager) {
+                this.logger.info(String.format("Adding unified TrustManager for System Trust Manager and %s", this.certificates));
+                unifiedTrustManager = new UnifiedX509ExtendedTrustManager(systemTrustManager, containerTrustManager, getTrustManagerFactory());
+                UNIFIED_TRUST_MANAGERS.put(key, unifiedTrustManager);
+            }
+        }
+
+        return unifiedTrustManager;
+    }
+
+    /**
+     * Returns whether the system and container anchors are merged into a single trust manager.  A system trust manager initialized with {@link ManagerFactoryParameters} is never merged, as
+     * the parameters may configure more than its anchors.
+     */
+    private boolean isUnified(SystemTrustManager systemTrustManager) {
+        return !systemTrustManager.initializedWithParameters && SystemProperties.getBoolean(UnifiedX509ExtendedTrustManager.ENABLED, false);
+    }
+
+    private TrustManager[] newTrustManagers(SystemTrustManager systemTrustManager, FileWatchingX509ExtendedTrustManager containerTrustManager) {
+        List<X509ExtendedTrustManager> delegates = new ArrayList<>();
+
+        if (systemTrustManager.trustManager != null && containerTrustManager != null && isUnified(systemTrustManager)) {
+            delegates.add(getUnifiedTrustManager(systemTrustManager.trustManager, containerTrustManager));
+        } else {
+            if (systemTrustManager.trustManager != null) {
+                delegates.add(systemTrustManager.trustManager);
+            }
+
+            if (containerTrustManager != null) {
+                delegates.add(containerTrustManager);
+            }
+        }
+
+        ValidatedChainCache chainCache = SystemProperties.getBoolean(ValidatedChainCache.ENABLED, false) ? new ValidatedChainCache() : null;
+        return new TrustManager[]{new DelegatingX509ExtendedTrustManager(delegates, chainCache, new AdvertisedIssuers(), getRevocationList())};
+    }
+
+    private void setSystemTrustManager(SystemTrustManager systemTrustManager) {
+        if (systemTrustManager.trustManager != null) {
+            this.logger.info("Adding System Trust Manager");
         }
+
+        this.systemTrustManager = systemTrustManager;
     }
 
     public static final class PKIXFactory extends CloudFoundryContainerTrustManagerFactory {
@@ -161,4 +282,43 @@ abstract class CloudFoundryContainerTrustManagerFactory extends TrustManagerFact
 
     }
 
+    private static final class Delegating {
+
+        private final FileWatchingX509ExtendedTrustManager containerTrustManager;
+
+        private final SystemTrustManager systemTrustManager;
+
+        private final TrustManager[] trustManagers;
+
+        private Delegating(SystemTrustManager systemTrustManager, FileWatchingX509ExtendedTrustManager containerTrustManager, TrustManager[] trustManagers) {
+            this.systemTrustManager = systemTrustManager;
+            this.containerTrustManager = containerTrustManager;
+            this.trustManagers = trustManagers;
+        }
+
+    }
+
+    private static final class SystemTrustManager {
+
+        private final boolean initializedWithParameters;
+
+        private final X509ExtendedTrustManager trustManager;
+
+        private SystemTrustManager(TrustManager[] candidates, boolean initializedWithParameters) {
+            this.initializedWithParameters = initializedWithParameters;
+            this.trustManager = getTrustManager(candidates);
+        }
+
+        private static X509ExtendedTrustManager getTrustManager(TrustManager[] candidates) {
+            for (TrustManager candidate : candidates) {
+                if (candidate instanceof X509ExtendedTrustManager) {
+                    return (X509ExtendedTrustManager) candidate;
+                }
+            }
+
+            return null;
+        }
+
+    }
+
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wraps a callback so that a burst of triggers results in a single invocation once the triggers have been quiet for a configurable period.  Invocations happen on the {@link Scheduler} thread,
+ * so at most one runs at a time, and triggers that arrive while one is running queue at most one more.
+ */
+final class CoalescingCallback implements Runnable {
+
+    static final String QUIET_PERIOD = "org.cloudfoundry.security.watcher.quiet.period";
+
+    private static final int DEFAULT_QUIET_PERIOD = 250;
+
+    private static final int MAXIMUM_DELAY_FACTOR = 20;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Runnable callback;
+
+    private final long quietPeriod;
+
+    private long deadline;
+
+    private long firstTrigger;
+
+    private boolean scheduled;
+
+    CoalescingCallback(Runnable callback) {
+        this(callback, TimeUnit.MILLISECONDS.toNanos(Math.max(0, SystemProperties.getInteger(QUIET_PERIOD, DEFAULT_QUIET_PERIOD))));
+    }
+
+    CoalescingCallback(Runnable callback, long quietPeriod) {
+        this.callback = callback;
+        this.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Records a trigger, scheduling an invocation of the callback if one is not already pending.
+     */
+    @Override
+    public synchronized void run() {
+        long now = System.nanoTime();
+        this.deadline = now + this.quietPeriod;
+
+        if (!this.scheduled) {
+            this.scheduled = true;
+            this.firstTrigger = now;
+            Scheduler.schedule(new Invocation(), this.quietPeriod, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void invoke() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            long remaining = Math.min(this.deadline, this.firstTrigger + this.quietPeriod * MAXIMUM_DELAY_FACTOR) - now;
+
+            if (remaining > 0) {
+                Scheduler.schedule(new Invocation(), remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            this.scheduled = false;
+        }
+
+        try {
+            this.callback.run();
+        } catch (RuntimeException e) {
+            this.logger.log(Level.WARNING, "Unable to process change", e);
+        }
+    }
+
+    private final class Invocation implements Runnable {
+
+        @Override
+        public void run() {
+            invoke();
+        }
+
+    }
+
+}
@@ -22,146 +22,167 @@ import java.net.Socket;
 import java.security.Principal;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 final class DelegatingX509ExtendedKeyManager extends X509ExtendedKeyManager {
 
-    private final List<X509ExtendedKeyManager> delegates;
+    private static final int CHOOSE_CLIENT_ALIAS = 0;
 
-    DelegatingX509ExtendedKeyManager(List<X509ExtendedKeyManager> delegates) {
-        this.delegates = delegates;
-    }
+    private static final int CHOOSE_ENGINE_CLIENT_ALIAS = 1;
 
-    @Override
-    public String chooseClientAlias(final String[] strings, final Principal[] principals, final Socket socket) {
-        return with(new Function<String>() {
+    private static final int CHOOSE_ENGINE_SERVER_ALIAS = 2;
 
-            @Override
-            public String apply(X509ExtendedKeyManager delegate) {
-                return delegate.chooseClientAlias(strings, principals, socket);
-            }
+    private static final int CHOOSE_SERVER_ALIAS = 3;
 
-        });
-    }
+    private static final int GET_CLIENT_ALIASES = 4;
 
-    @Override
-    public String chooseEngineClientAlias(final String[] strings, final Principal[] principals, final SSLEngine sslEngine) {
-        return with(new Function<String>() {
+    private static final int GET_SERVER_ALIASES = 5;
 
-            @Override
-            public String apply(X509ExtendedKeyManager delegate) {
-                return delegate.chooseEngineClientAlias(strings, principals, sslEngine);
-            }
+    private static final String[] NO_ALIASES = new String[0];
+
+    private final X509ExtendedKeyManager[] delegates;
 
-        });
+    DelegatingX509ExtendedKeyManager(List<X509ExtendedKeyManager> delegates) {
+        this.delegates = delegates.toArray(new X509ExtendedKeyManager[delegates.size()]);
     }
 
     @Override
-    public String chooseEngineServerAlias(final String s, final Principal[] principals, final SSLEngine sslEngine) {
-        return with(new Function<String>() {
-
-            @Override
-            public String apply(X509ExtendedKeyManager delegate) {
-                return delegate.chooseEngineServerAlias(s, principals, sslEngine);
-            }
-
-        });
+    public String chooseClientAlias(String[] strings, Principal[] principals, Socket socket) {
+        return with(CHOOSE_CLIENT_ALIAS, strings, null, principals, socket, null);
     }
 
     @Override
-    public String chooseServerAlias(final String s, final Principal[] principals, final Socket socket) {
-        return with(new Function<String>() {
-
-            @Override
-            public String apply(X509ExtendedKeyManager delegate) {
-                return delegate.chooseServerAlias(s, principals, socket);
-            }
-
-        });
+    public String chooseEngineClientAlias(String[] strings, Principal[] principals, SSLEngine sslEngine) {
+        return with(CHOOSE_ENGINE_CLIENT_ALIAS, strings, null, principals, null, sslEngine);
     }
 
     @Override
-    public X509Certificate[] getCertificateChain(final String s) {
-        return with(new Function<X509Certificate[]>() {
-
-            @Override
-            public X509Certificate[] apply(X509ExtendedKeyManager delegate) {
-                return delegate.getCertificateChain(s);
-            }
-
-        });
+    public String chooseEngineServerAlias(String s, Principal[] principals, SSLEngine sslEngine) {
+        return with(CHOOSE_ENGINE_SERVER_ALIAS, null, s, principals, null, sslEngine);
     }
 
     @Override
-    public String[] getClientAliases(final String s, final Principal[] principals) {
-        return collect(new Function<String[]>() {
+    public String chooseServerAlias(String s, Principal[] principals, Socket socket) {
+        return with(CHOOSE_SERVER_ALIAS, null, s, principals, socket, null);
+    }
 
-            @Override
-            public String[] apply(X509ExtendedKeyManager delegate) {
-                return delegate.getClientAliases(s, principals);
+    @Override
+    public X509Certificate[] getCertificateChain(String s) {
+        for (X509ExtendedKeyManager delegate : this.delegates) {
+            X509Certificate[] candidate = delegate.getCertificateChain(s);
+            if (candidate != null) {
+                return candidate;
             }
+        }
 
-        });
+        return null;
     }
 
     @Override
-    public PrivateKey getPrivateKey(final String s) {
-        return with(new Function<PrivateKey>() {
+    public String[] getClientAliases(String s, Principal[] principals) {
+        return collect(GET_CLIENT_ALIASES, s, principals);
+    }
 
-            @Override
-            public PrivateKey apply(X509ExtendedKeyManager delegate) {
-                return delegate.getPrivateKey(s);
+    @Override
+    public PrivateKey getPrivateKey(String s) {
+        for (X509ExtendedKeyManager delegate : this.delegates) {
+            PrivateKey candidate = delegate.getPrivateKey(s);
+            if (candidate != null) {
+                return candidate;
             }
+        }
 
-        });
+        return null;
     }
 
     @Override
-    public String[] getServerAliases(final String s, final Principal[] principals) {
-        return collect(new Function<String[]>() {
-
-            @Override
-            public String[] apply(X509ExtendedKeyManager delegate) {
-                return delegate.getServerAliases(s, principals);
-            }
-
-        });
+    public String[] getServerAliases(String s, Principal[] principals) {
+        return collect(GET_SERVER_ALIASES, s, principals);
     }
 
     int size() {
-        return this.delegates.size();
+        return this.delegates.length;
     }
 
-    private String[] collect(Function<String[]> function) {
-        List<String> collected = new ArrayList<>();
+    private static String[] aliases(X509ExtendedKeyManager delegate, int operation, String s, Principal[] principals) {
+        switch (operation) {
+            case GET_CLIENT_ALIASES:
+                return delegate.getClientAliases(s, principals);
+            case GET_SERVER_ALIASES:
+                return delegate.getServerAliases(s, principals);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown operation: %d", operation));
+        }
+    }
 
-        for (X509ExtendedKeyManager delegate : this.delegates) {
-            String[] candidate = function.apply(delegate);
-            if (candidate != null) {
-                Collections.addAll(collected, candidate);
-            }
+    private static String apply(X509ExtendedKeyManager delegate, int operation, String[] strings, String s, Principal[] principals, Socket socket, SSLEngine sslEngine) {
+        switch (operation) {
+            case CHOOSE_CLIENT_ALIAS:
+                return delegate.chooseClientAlias(strings, principals, socket);
+            case CHOOSE_ENGINE_CLIENT_ALIAS:
+                return delegate.chooseEngineClientAlias(strings, principals, sslEngine);
+            case CHOOSE_ENGINE_SERVER_ALIAS:
+                return delegate.chooseEngineServerAlias(s, principals, sslEngine);
+            case CHOOSE_SERVER_ALIAS:
+                return delegate.chooseServerAlias(s, principals, socket);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown operation: %d", operation));
         }
+    }
 
-        return collected.toArray(new String[collected.size()]);
+    private String[] collect(int operation, String s, Principal[] principals) {
+        X509ExtendedKeyManager[] delegates = this.delegates;
 
-    }
+        if (delegates.length == 1) {
+            String[] candidate = aliases(delegates[0], operation, s, principals);
+            return candidate != null ? candidate : NO_ALIASES;
+        }
 
-    private <T> T with(Function<T> function) {
-        for (X509ExtendedKeyManager delegate : this.delegates) {
-            T candidate = function.apply(delegate);
+        String[][] candidates = new String[delegates.length][];
+        int size = 0;
+        for (int i = 0; i < delegates.length; i++) {
+            candidates[i] = aliases(delegates[i], operation, s, principals);
+            if (candidates[i] != null) {
+                size += candidates[i].length;
+            }
+        }
+
+        String[] collected = new String[size];
+        int position = 0;
+        for (String[] candidate : candidates) {
             if (candidate != null) {
-                return candidate;
+                System.arraycopy(candidate, 0, collected, position, candidate.length);
+                position += candidate.length;
             }
         }
 
-        return null;
+        return collected;
     }
 
-    private interface Function<T> {
-
-        T apply(X509ExtendedKeyManager delegate);
+    /**
+     * Returns the first non-{@code null} alias chosen by a delegate.  The common one and two delegate cases are unrolled so that choosing an alias allocates nothing.
+     */
+    private String with(int operation, String[] strings, String s, Principal[] principals, Socket socket, SSLEngine sslEngine) {
+        X509ExtendedKeyManager[] delegates = this.delegates;
+
+        switch (delegates.length) {
+            case 0:
+                return null;
+            case 1:
+                return apply(delegates[0], operation, strings, s, principals, socket, sslEngine);
+            case 2:
+                String candidate = apply(delegates[0], operation, strings, s, principals, socket, sslEngine);
+                return candidate != null ? candidate : apply(delegates[1], operation, strings, s, principals, socket, sslEngine);
+            default:
+                for (X509ExtendedKeyManager delegate : delegates) {
+                    String alias = apply(delegate, operation, strings, s, principals, socket, sslEngine);
+                    if (alias != null) {
+                        return alias;
+                    }
+                }
+
+                return null;
+        }
     }
 
 }
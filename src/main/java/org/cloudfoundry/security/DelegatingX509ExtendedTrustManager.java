@@ -17,149 +17,392 @@
 package org.cloudfoundry.security;
 
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.X509ExtendedTrustManager;
 import java.net.Socket;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Set;
+
+/**
+ * A trust manager that passes a check if any of its delegates passes it.  Checks are routed through an {@link IssuerIndex} straight to the delegate that accepts an issuer of the chain.  When a
+ * {@link ValidatedChainCache} is configured, chains that have already passed are accepted without consulting the delegates again, as long as none of the
+ * {@link GenerationalTrustManager} delegates has swapped since and any endpoint identification the check requires has passed before for the same peer.  Likewise, chains that have recently
+ * failed a check that does not require endpoint identification are rejected with a preallocated exception.  When a {@link RevocationList} is configured, chains that pass are rejected if any
+ * of their certificates has been revoked.
+ */
 final class DelegatingX509ExtendedTrustManager extends X509ExtendedTrustManager {
 
-    private final List<X509ExtendedTrustManager> delegates;
+    private static final int CHECK_CLIENT = 0;
+
+    private static final int CHECK_CLIENT_ENGINE = 1;
+
+    private static final int CHECK_CLIENT_SOCKET = 2;
+
+    private static final int CHECK_SERVER = 3;
+
+    private static final int CHECK_SERVER_ENGINE = 4;
+
+    private static final int CHECK_SERVER_SOCKET = 5;
+
+    private static final X509Certificate[] NO_CERTIFICATES = new X509Certificate[0];
+
+    private final AdvertisedIssuers advertisedIssuers;
+
+    private final ValidatedChainCache chainCache;
+
+    private final X509ExtendedTrustManager[] delegates;
+
+    private final RevocationList revocationList;
+
+    private final GenerationalTrustManager[] generationalDelegates;
+
+    private volatile AcceptedIssuers acceptedIssuers;
+
+    private volatile IssuerIndex issuerIndex;
 
     DelegatingX509ExtendedTrustManager(List<X509ExtendedTrustManager> delegates) {
-        this.delegates = delegates;
+        this(delegates, null, new AdvertisedIssuers(), null);
     }
 
-    @Override
-    public void checkClientTrusted(final X509Certificate[] x509Certificates, final String s, final Socket socket) throws CertificateException {
-        with(new Consumer() {
+    DelegatingX509ExtendedTrustManager(List<X509ExtendedTrustManager> delegates, ValidatedChainCache chainCache, AdvertisedIssuers advertisedIssuers, RevocationList revocationList) {
+        this.advertisedIssuers = advertisedIssuers;
+        this.chainCache = chainCache;
+        this.delegates = delegates.toArray(new X509ExtendedTrustManager[delegates.size()]);
+        this.revocationList = revocationList;
 
-            @Override
-            public void accept(X509ExtendedTrustManager delegate) throws CertificateException {
-                delegate.checkClientTrusted(x509Certificates, s, socket);
+        List<GenerationalTrustManager> generationalDelegates = new ArrayList<>();
+        for (X509ExtendedTrustManager delegate : delegates) {
+            if (delegate instanceof GenerationalTrustManager) {
+                generationalDelegates.add((GenerationalTrustManager) delegate);
             }
-
-        });
+        }
+        this.generationalDelegates = generationalDelegates.toArray(new GenerationalTrustManager[generationalDelegates.size()]);
     }
 
     @Override
-    public void checkClientTrusted(final X509Certificate[] x509Certificates, final String s) throws CertificateException {
-        with(new Consumer() {
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s, Socket socket) throws CertificateException {
+        with(CHECK_CLIENT_SOCKET, x509Certificates, s, socket, null);
+    }
 
-            @Override
-            public void accept(X509ExtendedTrustManager delegate) throws CertificateException {
-                delegate.checkClientTrusted(x509Certificates, s);
-            }
+    @Override
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+        with(CHECK_CLIENT, x509Certificates, s, null, null);
+    }
 
-        });
+    @Override
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s, SSLEngine sslEngine) throws CertificateException {
+        with(CHECK_CLIENT_ENGINE, x509Certificates, s, null, sslEngine);
     }
 
     @Override
-    public void checkClientTrusted(final X509Certificate[] x509Certificates, final String s, final SSLEngine sslEngine) throws CertificateException {
-        with(new Consumer() {
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s, Socket socket) throws CertificateException {
+        with(CHECK_SERVER_SOCKET, x509Certificates, s, socket, null);
+    }
 
-            @Override
-            public void accept(X509ExtendedTrustManager delegate) throws CertificateException {
-                delegate.checkClientTrusted(x509Certificates, s, sslEngine);
-            }
+    @Override
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+        with(CHECK_SERVER, x509Certificates, s, null, null);
+    }
 
-        });
+    @Override
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s, SSLEngine sslEngine) throws CertificateException {
+        with(CHECK_SERVER_ENGINE, x509Certificates, s, null, sslEngine);
     }
 
+    /**
+     * Returns the advertised issuers, deduplicated across delegates.  The array is collected once per trust generation, and a copy is returned to each caller.
+     */
     @Override
-    public void checkServerTrusted(final X509Certificate[] x509Certificates, final String s, final Socket socket) throws CertificateException {
-        with(new Consumer() {
+    public X509Certificate[] getAcceptedIssuers() {
+        long generation = getGeneration();
+        AcceptedIssuers acceptedIssuers = this.acceptedIssuers;
 
-            @Override
-            public void accept(X509ExtendedTrustManager delegate) throws CertificateException {
-                delegate.checkServerTrusted(x509Certificates, s, socket);
-            }
+        if (acceptedIssuers == null || acceptedIssuers.generation != generation) {
+            acceptedIssuers = new AcceptedIssuers(generation, collectAcceptedIssuers());
+            this.acceptedIssuers = acceptedIssuers;
+        }
 
-        });
+        return acceptedIssuers.certificates.length == 0 ? NO_CERTIFICATES : acceptedIssuers.certificates.clone();
     }
 
-    @Override
-    public void checkServerTrusted(final X509Certificate[] x509Certificates, final String s) throws CertificateException {
-        with(new Consumer() {
+    X509ExtendedTrustManager getDelegate(int index) {
+        return this.delegates[index];
+    }
 
-            @Override
-            public void accept(X509ExtendedTrustManager delegate) throws CertificateException {
+    int size() {
+        return this.delegates.length;
+    }
+
+    private static void check(X509ExtendedTrustManager delegate, int operation, X509Certificate[] x509Certificates, String s, Socket socket, SSLEngine sslEngine) throws CertificateException {
+        switch (operation) {
+            case CHECK_CLIENT:
+                delegate.checkClientTrusted(x509Certificates, s);
+                break;
+            case CHECK_CLIENT_ENGINE:
+                delegate.checkClientTrusted(x509Certificates, s, sslEngine);
+                break;
+            case CHECK_CLIENT_SOCKET:
+                delegate.checkClientTrusted(x509Certificates, s, socket);
+                break;
+            case CHECK_SERVER:
                 delegate.checkServerTrusted(x509Certificates, s);
-            }
+                break;
+            case CHECK_SERVER_ENGINE:
+                delegate.checkServerTrusted(x509Certificates, s, sslEngine);
+                break;
+            case CHECK_SERVER_SOCKET:
+                delegate.checkServerTrusted(x509Certificates, s, socket);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown operation: %d", operation));
+        }
+    }
 
-        });
+    private static SSLSession getHandshakeSession(Socket socket, SSLEngine sslEngine) {
+        if (sslEngine != null) {
+            return sslEngine.getHandshakeSession();
+        }
+
+        return socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null;
     }
 
-    @Override
-    public void checkServerTrusted(final X509Certificate[] x509Certificates, final String s, final SSLEngine sslEngine) throws CertificateException {
-        with(new Consumer() {
+    private static String getIdentificationAlgorithm(SSLParameters sslParameters) {
+        if (sslParameters == null) {
+            return null;
+        }
 
-            @Override
-            public void accept(X509ExtendedTrustManager delegate) throws CertificateException {
-                delegate.checkServerTrusted(x509Certificates, s, sslEngine);
-            }
+        String algorithm = sslParameters.getEndpointIdentificationAlgorithm();
+        return algorithm == null || algorithm.isEmpty() ? null : algorithm;
+    }
 
-        });
+    private static SSLParameters getSslParameters(Socket socket, SSLEngine sslEngine) {
+        if (sslEngine != null) {
+            return sslEngine.getSSLParameters();
+        }
+
+        return socket instanceof SSLSocket && socket.isConnected() ? ((SSLSocket) socket).getSSLParameters() : null;
     }
 
-    @Override
-    public X509Certificate[] getAcceptedIssuers() {
-        return collect(new Function() {
+    private void checkRevocation(X509Certificate[] x509Certificates) throws CertificateException {
+        if (this.revocationList != null && x509Certificates != null) {
+            this.revocationList.check(x509Certificates);
+        }
+    }
+
+    private X509Certificate[] collectAcceptedIssuers() {
+        X509Certificate[] configured = this.advertisedIssuers.getConfigured();
+        if (configured != null) {
+            return configured;
+        }
 
-            @Override
-            public X509Certificate[] apply(X509ExtendedTrustManager delegate) {
-                return delegate.getAcceptedIssuers();
+        Set<X509Certificate> collected = new LinkedHashSet<>();
+        for (X509ExtendedTrustManager delegate : this.delegates) {
+            X509Certificate[] candidates = this.advertisedIssuers.select(delegate);
+            if (candidates != null) {
+                Collections.addAll(collected, candidates);
             }
+        }
 
-        });
+        return collected.toArray(new X509Certificate[collected.size()]);
     }
 
-    int size() {
-        return this.delegates.size();
+    /**
+     * Returns the combined trust generation of the generational delegates and the revocation list, which increases whenever any of them swaps.
+     */
+    private long getGeneration() {
+        long generation = this.revocationList != null ? this.revocationList.getGeneration() : 0;
+
+        for (GenerationalTrustManager generationalDelegate : this.generationalDelegates) {
+            generation += generationalDelegate.getGeneration();
+        }
+
+        return generation;
     }
 
-    private X509Certificate[] collect(Function function) {
-        List<X509Certificate> collected = new ArrayList<>();
+    private IssuerIndex getIssuerIndex() {
+        long generation = getGeneration();
+        IssuerIndex issuerIndex = this.issuerIndex;
 
-        for (X509ExtendedTrustManager delegate : this.delegates) {
-            X509Certificate[] candidate = function.apply(delegate);
-            if (candidate != null) {
-                Collections.addAll(collected, candidate);
+        if (issuerIndex == null || issuerIndex.getGeneration() != generation) {
+            issuerIndex = new IssuerIndex(this.delegates, generation);
+            this.issuerIndex = issuerIndex;
+        }
+
+        return issuerIndex;
+    }
+
+    /**
+     * Routes the check to the delegate that accepts an issuer of the chain, falling back to each of the other delegates if it fails.  A chain that matches no accepted issuer is checked by each
+     * delegate in turn, unless every delegate advertises its accepted issuers, in which case it is rejected without consulting them.
+     */
+    private void validate(int operation, X509Certificate[] x509Certificates, String s, Socket socket, SSLEngine sslEngine) throws CertificateException {
+        X509ExtendedTrustManager[] delegates = this.delegates;
+
+        if (delegates.length < 2 || x509Certificates == null || x509Certificates.length == 0) {
+            validateEach(operation, x509Certificates, s, socket, sslEngine);
+            return;
+        }
+
+        IssuerIndex issuerIndex = getIssuerIndex();
+        int routed = issuerIndex.getTrustManager(x509Certificates);
+
+        if (routed == IssuerIndex.UNKNOWN) {
+            if (issuerIndex.isComplete()) {
+                throw new CertificateException(String.format("No trusted issuer for %s", x509Certificates[0].getSubjectX500Principal()));
             }
+
+            validateEach(operation, x509Certificates, s, socket, sslEngine);
+            return;
         }
 
-        return collected.toArray(new X509Certificate[collected.size()]);
+        try {
+            check(delegates[routed], operation, x509Certificates, s, socket, sslEngine);
+        } catch (CertificateException e) {
+            CertificateException failure = e;
+
+            for (int i = 0; i < delegates.length; i++) {
+                if (i == routed) {
+                    continue;
+                }
+
+                try {
+                    check(delegates[i], operation, x509Certificates, s, socket, sslEngine);
+                    return;
+                } catch (CertificateException f) {
+                    failure = f;
+                }
+            }
 
+            throw failure;
+        }
     }
 
-    private void with(Consumer consumer) throws CertificateException {
-        CertificateException exception = null;
+    /**
+     * Passes if any delegate passes, otherwise rethrows the exception of the last delegate.  The common one and two delegate cases are unrolled so that a passing check allocates nothing.
+     */
+    private void validateEach(int operation, X509Certificate[] x509Certificates, String s, Socket socket, SSLEngine sslEngine) throws CertificateException {
+        X509ExtendedTrustManager[] delegates = this.delegates;
 
-        for (X509ExtendedTrustManager delegate : this.delegates) {
-            try {
-                consumer.accept(delegate);
+        switch (delegates.length) {
+            case 0:
+                return;
+            case 1:
+                check(delegates[0], operation, x509Certificates, s, socket, sslEngine);
+                return;
+            case 2:
+                try {
+                    check(delegates[0], operation, x509Certificates, s, socket, sslEngine);
+                } catch (CertificateException e) {
+                    check(delegates[1], operation, x509Certificates, s, socket, sslEngine);
+                }
                 return;
-            } catch (CertificateException e) {
-                exception = e;
+            default:
+                for (int i = 0; i < delegates.length - 1; i++) {
+                    try {
+                        check(delegates[i], operation, x509Certificates, s, socket, sslEngine);
+                        return;
+                    } catch (CertificateException e) {
+                        // try the next delegate
+                    }
+                }
+
+                check(delegates[delegates.length - 1], operation, x509Certificates, s, socket, sslEngine);
+        }
+    }
+
+    /**
+     * Checks the chain against the {@link ValidatedChainCache}, if configured, before validating it.  A check that requires endpoint identification is only skipped if both the chain and the
+     * identification of its leaf in the handshake have passed before.  As its failure may depend on the peer, such a check is never rejected from the cache.  Checks made during a handshake are
+     * keyed on the state of the handshake that the algorithm constraints of the delegates depend on, so that a chain is only served or rejected from the cache under the constraints it was
+     * validated against.  A peer that fails a chain under its own choice of protocol therefore cannot get the chain rejected for handshakes that negotiate differently.
+     */
+    private void with(int operation, X509Certificate[] x509Certificates, String s, Socket socket, SSLEngine sslEngine) throws CertificateException {
+        ValidatedChainCache chainCache = this.chainCache;
+
+        if (chainCache == null) {
+            validate(operation, x509Certificates, s, socket, sslEngine);
+            checkRevocation(x509Certificates);
+            return;
+        }
+
+        boolean server = operation >= CHECK_SERVER;
+        SSLSession handshakeSession = getHandshakeSession(socket, sslEngine);
+        SSLParameters sslParameters = getSslParameters(socket, sslEngine);
+        ValidatedChainCache.Key key = chainCache.getKey(x509Certificates, s, server, handshakeSession, sslParameters != null ? sslParameters.getAlgorithmConstraints() : null);
+
+        if (key == null) {
+            validate(operation, x509Certificates, s, socket, sslEngine);
+            checkRevocation(x509Certificates);
+            return;
+        }
+
+        long generation = getGeneration();
+        String algorithm = getIdentificationAlgorithm(sslParameters);
+        ValidatedChainCache.IdentityKey identityKey = algorithm != null ? chainCache.getIdentityKey(x509Certificates[0], handshakeSession, algorithm, server) : null;
+
+        if (algorithm == null && chainCache.containsRejection(key, generation)) {
+            throw new RejectedChainException();
+        }
+        if (algorithm == null && chainCache.contains(key, generation)) {
+            return;
+        }
+        if (identityKey != null && chainCache.contains(key, generation) && chainCache.containsIdentity(identityKey, generation)) {
+            return;
+        }
+
+        try {
+            validate(operation, x509Certificates, s, socket, sslEngine);
+            checkRevocation(x509Certificates);
+        } catch (CertificateException e) {
+            if (algorithm == null) {
+                chainCache.putRejection(key, generation);
             }
+
+            throw e;
         }
 
-        if (exception != null) {
-            throw exception;
+        chainCache.put(key, x509Certificates, generation);
+        if (identityKey != null) {
+            chainCache.putIdentity(identityKey, x509Certificates[0], generation);
         }
     }
 
-    private interface Consumer {
+    private static final class AcceptedIssuers {
+
+        private final X509Certificate[] certificates;
+
+        private final long generation;
+
+        private AcceptedIssuers(long generation, X509Certificate[] certificates) {
+            this.generation = generation;
+            this.certificates = certificates;
+        }
 
-        void accept(X509ExtendedTrustManager delegate) throws CertificateException;
     }
 
-    private interface Function {
+    /**
+     * Thrown for chains that have recently been rejected.  It carries no stack trace, so that rejecting a chain from the cache stays cheap.
+     */
+    private static final class RejectedChainException extends CertificateException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RejectedChainException() {
+            super("Certificate chain has recently been rejected");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
 
-        X509Certificate[] apply(X509ExtendedTrustManager delegate);
     }
 
 }
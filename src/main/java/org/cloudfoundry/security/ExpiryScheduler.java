@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Schedules re-checks of watched files on the {@link Scheduler} ahead of the expiry of the material loaded from them, so that a rotation is picked up even if the change notification is missed
+ * or late.  Files are re-checked a configurable lead time before expiry and again shortly before expiry.  Once material scheduled with {@link #schedule(Date)} has expired, files are
+ * re-checked every {@code margin} until a new expiry is scheduled.  Material scheduled with {@link #scheduleEach(Collection)}, such as a bundle of trust anchors, is re-checked once at each
+ * expiry in turn, as the expiry of one anchor does not mean that a rotation is coming.
+ */
+final class ExpiryScheduler {
+
+    static final String LEAD_TIME = "org.cloudfoundry.security.expiry.lead.time";
+
+    private static final int DEFAULT_LEAD_TIME = 600_000;
+
+    private static final long MARGIN = 30_000;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Runnable callback;
+
+    private final long leadTime;
+
+    private final long margin;
+
+    private final Object source;
+
+    private ScheduledFuture<?> check;
+
+    private Date notAfter;
+
+    private NavigableSet<Date> notAfters;
+
+    ExpiryScheduler(Object source, Runnable callback) {
+        this(source, callback, Math.max(0, SystemProperties.getInteger(LEAD_TIME, DEFAULT_LEAD_TIME)), MARGIN);
+    }
+
+    ExpiryScheduler(Object source, Runnable callback, long leadTime, long margin) {
+        this.callback = callback;
+        this.leadTime = leadTime;
+        this.margin = margin;
+        this.source = source;
+    }
+
+    /**
+     * Schedules re-checks ahead of {@code notAfter}, replacing any previously scheduled re-checks.  A {@code null} value cancels all re-checks.
+     */
+    synchronized void schedule(Date notAfter) {
+        cancel();
+        this.notAfter = notAfter;
+
+        if (notAfter != null) {
+            scheduleNext(notAfter);
+        }
+    }
+
+    /**
+     * Schedules re-checks ahead of each of the future {@code notAfters} in turn, replacing any previously scheduled re-checks.  Expiries that have already passed are ignored.
+     */
+    synchronized void scheduleEach(Collection<Date> notAfters) {
+        cancel();
+        this.notAfters = new TreeSet<>(notAfters);
+
+        Date notAfter = this.notAfters.higher(new Date());
+        this.notAfter = notAfter;
+
+        if (notAfter != null) {
+            scheduleNext(notAfter);
+        }
+    }
+
+    private void cancel() {
+        if (this.check != null) {
+            this.check.cancel(false);
+            this.check = null;
+        }
+
+        this.notAfters = null;
+    }
+
+    private void check(Date notAfter) {
+        this.logger.fine(String.format("Checking %s ahead of expiry at %s", this.source, notAfter));
+
+        try {
+            this.callback.run();
+        } catch (RuntimeException e) {
+            this.logger.log(Level.WARNING, String.format("Unable to check %s ahead of expiry", this.source), e);
+        }
+
+        synchronized (this) {
+            if (notAfter == this.notAfter) {
+                scheduleNext(notAfter);
+            }
+        }
+    }
+
+    private void scheduleNext(Date notAfter) {
+        long now = System.currentTimeMillis();
+        long expiry = notAfter.getTime();
+
+        long next;
+        if (expiry - this.leadTime > now) {
+            next = expiry - this.leadTime;
+        } else if (expiry - this.margin > now) {
+            next = expiry - this.margin;
+        } else if (this.notAfters == null) {
+            next = now + this.margin;
+        } else if (expiry > now) {
+            next = expiry;
+        } else {
+            Date following = this.notAfters.higher(new Date(now));
+            this.notAfter = following;
+
+            if (following != null) {
+                scheduleNext(following);
+            } else {
+                this.check = null;
+            }
+            return;
+        }
+
+        this.logger.fine(String.format("Scheduled check of %s at %s", this.source, new Date(next)));
+        this.check = Scheduler.schedule(new Check(notAfter), next - now, TimeUnit.MILLISECONDS);
+    }
+
+    private final class Check implements Runnable {
+
+        private final Date notAfter;
+
+        private Check(Date notAfter) {
+            this.notAfter = notAfter;
+        }
+
+        @Override
+        public void run() {
+            check(this.notAfter);
+        }
+
+    }
+
+}
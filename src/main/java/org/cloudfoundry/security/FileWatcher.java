@@ -17,106 +17,312 @@
 package org.cloudfoundry.security;
 
 import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
-final class FileWatcher implements Runnable, Thread.UncaughtExceptionHandler, ThreadFactory {
+/**
+ * A process-wide watcher for file changes.  There is one {@link WatchService} per {@link FileSystem}, with one registration per watched directory, and a daemon thread per {@link WatchService}
+ * that blocks until it delivers a key, so that an idle watcher uses no CPU.  In practice only the default {@link FileSystem} is watched, and a single thread services every watched path.  Events
+ * are dispatched to the callbacks subscribed to the file name that changed.
+ * <p>
+ * When a watched file is a symbolic link into a directory that is swapped atomically through a swap link (e.g. {@code cert.pem -> ..data/cert.pem} with {@code ..data -> ..2019_01_01_00_00_00.000}),
+ * the swap link is watched as well, and the callback is only called when the real path of the file has changed.
+ * <p>
+ * The {@value #MODE} system property selects how changes are detected: {@code native} (the default) uses the {@link WatchService}, {@code polling} uses a {@link PollingFileWatcher} every
+ * {@value #POLLING_INTERVAL} milliseconds, and {@code hybrid} uses the {@link WatchService} with a {@link PollingFileWatcher} every {@value #HYBRID_INTERVAL} milliseconds as a safety net.
+ */
+final class FileWatcher {
+
+    static final String HYBRID_INTERVAL = "org.cloudfoundry.security.watcher.hybrid.interval";
+
+    static final String MODE = "org.cloudfoundry.security.watcher";
+
+    static final String POLLING_INTERVAL = "org.cloudfoundry.security.watcher.polling.interval";
+
+    static final String SWAP_LINK = "org.cloudfoundry.security.watcher.swap.link";
+
+    private static final int DEFAULT_HYBRID_INTERVAL = 60_000;
+
+    private static final String DEFAULT_MODE = "native";
+
+    private static final int DEFAULT_POLLING_INTERVAL = 5_000;
+
+    private static final String DEFAULT_SWAP_LINK = "..data";
+
+    private static final FileWatcher INSTANCE = new FileWatcher();
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
-    private final Runnable callback;
+    private final Map<WatchKey, List<Runnable>> directorySubscriptions = new ConcurrentHashMap<>();
+
+    private final Map<WatchKey, Map<Path, List<Runnable>>> subscriptions = new ConcurrentHashMap<>();
 
-    private final AtomicInteger counter = new AtomicInteger();
+    private final Map<FileSystem, WatchService> watchServices = new ConcurrentHashMap<>();
 
-    private final ExecutorService executorService;
+    private FileWatcher() {
+    }
 
-    private final Path source;
+    /**
+     * Watches {@code sources} for changes, calling {@code callback} whenever any of the files is created, modified or deleted.  A source that is a directory is watched for changes to any of the
+     * files it contains.  Bursts of changes, including changes to several of the files, are coalesced by a single {@link CoalescingCallback}.
+     */
+    static void watch(Runnable callback, Path... sources) {
+        Runnable coalescing = new CoalescingCallback(callback);
 
-    FileWatcher(Path source, Runnable callback) {
-        this.callback = callback;
-        this.executorService = Executors.newSingleThreadExecutor(this);
-        this.source = source;
+        for (Path source : sources) {
+            watch(source.toAbsolutePath(), coalescing);
+        }
     }
 
-    @Override
-    public Thread newThread(Runnable r) {
-        Thread thread = new Thread(r);
-        thread.setDaemon(true);
-        thread.setName(String.format("file-watcher-%s-%d", this.source.getName(this.source.getNameCount() - 1), this.counter.getAndIncrement()));
-        thread.setUncaughtExceptionHandler(this);
+    private static void watch(Path source, Runnable coalescing) {
+        boolean directory = Files.isDirectory(source);
+        Path swapLink = directory ? null : getSwapLink(source);
+        Runnable trigger = swapLink == null ? coalescing : new SwapLinkCallback(source, coalescing);
+
+        String mode = SystemProperties.getString(MODE, DEFAULT_MODE);
+        switch (mode) {
+            case "polling":
+                PollingFileWatcher.watch(source, trigger, getInterval(POLLING_INTERVAL, DEFAULT_POLLING_INTERVAL));
+                return;
+            case "hybrid":
+                PollingFileWatcher.watch(source, trigger, getInterval(HYBRID_INTERVAL, DEFAULT_HYBRID_INTERVAL));
+                break;
+            case "native":
+                break;
+            default:
+                Logger.getLogger(FileWatcher.class.getName()).warning(String.format("Ignoring invalid value for %s: %s", MODE, mode));
+        }
 
-        return thread;
+        if (directory) {
+            INSTANCE.register(source, null, trigger);
+        } else {
+            INSTANCE.register(source.getParent(), source.getFileName(), trigger);
+        }
+
+        if (swapLink != null) {
+            INSTANCE.register(swapLink.getParent(), swapLink.getFileName(), trigger);
+        }
     }
 
-    @Override
-    public void run() {
-        this.logger.info(String.format("Start watching %s", this.source));
+    private static long getInterval(String key, int defaultValue) {
+        int interval = SystemProperties.getInteger(key, defaultValue);
+        return interval > 0 ? interval : defaultValue;
+    }
 
-        WatchService watchService;
-        WatchKey expected;
+    private static Path getSwapLink(Path source) {
+        if (!Files.isSymbolicLink(source)) {
+            return null;
+        }
 
         try {
-            watchService = this.source.getFileSystem().newWatchService();
-            expected = this.source.getParent().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            Path target = Files.readSymbolicLink(source);
+            if (target.isAbsolute() || target.getNameCount() < 2 || !target.getName(0).toString().equals(SystemProperties.getString(SWAP_LINK, DEFAULT_SWAP_LINK))) {
+                return null;
+            }
+
+            Path swapLink = source.resolveSibling(target.getName(0));
+            return Files.isSymbolicLink(swapLink) ? swapLink : null;
         } catch (IOException e) {
-            this.logger.log(Level.SEVERE, "Unable to setup file watcher", e);
-            return;
+            return null;
         }
+    }
 
-        for (; ; ) {
-            try {
-                this.logger.fine("Waiting for event");
-                WatchKey actual = watchService.take();
+    private void dispatch(WatchKey watchKey) {
+        Map<Path, List<Runnable>> callbacks = this.subscriptions.get(watchKey);
+        List<Runnable> directoryCallbacks = this.directorySubscriptions.get(watchKey);
+
+        for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+            if (watchEvent.kind() == OVERFLOW) {
+                this.logger.warning(String.format("Events lost for %s, notifying all subscribers", watchKey.watchable()));
 
-                if (!actual.equals(expected)) {
-                    this.logger.warning(String.format("Unknown watch key: %s", actual));
-                    continue;
+                if (callbacks != null) {
+                    for (List<Runnable> candidates : callbacks.values()) {
+                        run(watchKey, candidates);
+                    }
                 }
+                if (directoryCallbacks != null) {
+                    run(watchKey, directoryCallbacks);
+                }
+                continue;
+            }
 
-                for (WatchEvent<?> watchEvent : actual.pollEvents()) {
-                    Path changed = (Path) watchEvent.context();
+            Path changed = (Path) watchEvent.context();
 
-                    if (!this.source.getFileName().equals(changed)) {
-                        this.logger.fine(String.format("Discarding unimportant file change: %s", changed));
-                        continue;
-                    }
-                    this.callback.run();
+            List<Runnable> candidates = callbacks != null ? callbacks.get(changed) : null;
+            if (candidates == null && directoryCallbacks == null) {
+                this.logger.fine(String.format("Discarding unimportant file change: %s", changed));
+                continue;
+            }
+
+            if (candidates != null) {
+                run(watchKey, candidates);
+            }
+            if (directoryCallbacks != null) {
+                run(watchKey, directoryCallbacks);
+            }
+        }
+
+        if (!watchKey.reset()) {
+            this.logger.warning(String.format("Watch key is no longer valid: %s", watchKey.watchable()));
+            this.subscriptions.remove(watchKey);
+            this.directorySubscriptions.remove(watchKey);
+        }
+    }
+
+    /**
+     * Subscribes {@code callback} to changes to {@code fileName} in {@code directory}, or to any change in {@code directory} if {@code fileName} is {@code null}.
+     */
+    private synchronized void register(Path directory, Path fileName, Runnable callback) {
+        Path source = fileName != null ? directory.resolve(fileName) : directory;
+        FileSystem fileSystem = directory.getFileSystem();
+
+        try {
+            WatchService watchService = this.watchServices.get(fileSystem);
+            if (watchService == null) {
+                watchService = fileSystem.newWatchService();
+                this.watchServices.put(fileSystem, watchService);
+                new Watcher(watchService).start();
+            }
+
+            WatchKey watchKey = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+            List<Runnable> candidates;
+            if (fileName == null) {
+                candidates = this.directorySubscriptions.get(watchKey);
+                if (candidates == null) {
+                    candidates = new CopyOnWriteArrayList<>();
+                    this.directorySubscriptions.put(watchKey, candidates);
+                }
+            } else {
+                Map<Path, List<Runnable>> callbacks = this.subscriptions.get(watchKey);
+                if (callbacks == null) {
+                    callbacks = new ConcurrentHashMap<>();
+                    this.subscriptions.put(watchKey, callbacks);
                 }
 
-                if (!actual.reset()) {
-                    this.logger.warning(String.format("Watch key is no longer valid: %s", actual));
-                    break;
+                candidates = callbacks.get(fileName);
+                if (candidates == null) {
+                    candidates = new CopyOnWriteArrayList<>();
+                    callbacks.put(fileName, candidates);
                 }
-            } catch (InterruptedException e) {
-                this.logger.warning("Thread interrupted");
-                Thread.currentThread().interrupt();
-                break;
             }
+
+            candidates.add(callback);
+            this.logger.info(String.format("Start watching %s", source));
+        } catch (IOException e) {
+            this.logger.log(Level.SEVERE, String.format("Unable to watch %s", source), e);
         }
+    }
 
-        this.logger.info(String.format("Stop watching %s", this.source));
+    private void run(WatchKey watchKey, List<Runnable> callbacks) {
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                this.logger.log(Level.WARNING, String.format("Unable to process change in %s", watchKey.watchable()), e);
+            }
+        }
     }
 
-    @Override
-    public void uncaughtException(Thread t, Throwable e) {
-        this.logger.log(Level.WARNING, "Suppressing watch error", e);
-        watch();
+    private static final class SwapLinkCallback implements Runnable {
+
+        private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+        private final Runnable callback;
+
+        private final Path source;
+
+        private volatile Path realPath;
+
+        private SwapLinkCallback(Path source, Runnable callback) {
+            this.callback = callback;
+            this.source = source;
+            this.realPath = getRealPath();
+        }
+
+        @Override
+        public void run() {
+            Path realPath = getRealPath();
+
+            if (realPath == null) {
+                this.logger.fine(String.format("Discarding change to %s while it cannot be resolved", this.source));
+                return;
+            }
+
+            if (realPath.equals(this.realPath)) {
+                this.logger.fine(String.format("Discarding change that did not swap %s", this.source));
+                return;
+            }
+
+            this.realPath = realPath;
+            this.callback.run();
+        }
+
+        private Path getRealPath() {
+            try {
+                return this.source.toRealPath();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
     }
 
-    void watch() {
-        this.executorService.execute(this);
+    /**
+     * Services a single {@link WatchService}, blocking until it delivers a key.  The thread is never interrupted, as it runs callbacks that may perform interruptible I/O.
+     */
+    private final class Watcher implements Runnable, Thread.UncaughtExceptionHandler {
+
+        private final WatchService watchService;
+
+        private Watcher(WatchService watchService) {
+            this.watchService = watchService;
+        }
+
+        @Override
+        public void run() {
+            FileWatcher.this.logger.info("Start watching");
+
+            for (; ; ) {
+                try {
+                    dispatch(this.watchService.take());
+                } catch (InterruptedException e) {
+                    FileWatcher.this.logger.warning("Thread interrupted");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            FileWatcher.this.logger.info("Stop watching");
+        }
+
+        @Override
+        public void uncaughtException(Thread t, Throwable e) {
+            FileWatcher.this.logger.log(Level.WARNING, "Suppressing watch error", e);
+            start();
+        }
+
+        private void start() {
+            Thread thread = Threads.newThread("file-watcher", this);
+            thread.setUncaughtExceptionHandler(this);
+            thread.start();
+        }
+
     }
 
 }
@@ -14,15 +14,20 @@
  * limitations under the License.
  */
 
+
 package org.cloudfoundry.security;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.X509ExtendedKeyManager;
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.Socket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -33,74 +38,226 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
+/**
+ * A key manager for the identities in a certificate and private key file pair, such as {@code CF_INSTANCE_CERT} and {@code CF_INSTANCE_KEY}, and in a directory of {@code <name>.crt} and
+ * {@code <name>.key} file pairs.  When there is more than one identity, server aliases are chosen by the SNI host name requested in the handshake.
+ * <p>
+ * Aliases carry the number of the generation that issued them (e.g. {@code 3:1.0.cloud-foundry-container-001}).  After a reload, aliases of the previous generation remain resolvable for
+ * {@value #GRACE_PERIOD} milliseconds, so handshakes that chose an alias just before the reload can still complete.
+ */
 final class FileWatchingX509ExtendedKeyManager extends X509ExtendedKeyManager {
 
+    static final String GRACE_PERIOD = "org.cloudfoundry.security.keymanager.grace.period";
+
+    private static final String CERTIFICATES_EXTENSION = ".crt";
+
+    private static final int DEFAULT_GRACE_PERIOD = 60_000;
+
+    private static final String PRIVATE_KEY_EXTENSION = ".key";
+
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
     private final Path certificates;
 
-    private final AtomicReference<X509ExtendedKeyManager> keyManager = new AtomicReference<>();
+    private final String description;
+
+    private final ExpiryScheduler expiryScheduler;
+
+    private final AtomicReference<Generation> generation = new AtomicReference<>();
+
+    private final long gracePeriod;
+
+    private final Path identities;
 
     private final KeyManagerFactory keyManagerFactory;
 
     private final Path privateKey;
 
     FileWatchingX509ExtendedKeyManager(Path certificates, Path privateKey, KeyManagerFactory keyManagerFactory) {
+        this(certificates, privateKey, null, keyManagerFactory);
+    }
+
+    FileWatchingX509ExtendedKeyManager(Path certificates, Path privateKey, Path identities, KeyManagerFactory keyManagerFactory) {
         this.certificates = certificates;
         this.privateKey = privateKey;
+        this.identities = identities;
         this.keyManagerFactory = keyManagerFactory;
+        this.gracePeriod = TimeUnit.MILLISECONDS.toNanos(Math.max(0, SystemProperties.getInteger(GRACE_PERIOD, DEFAULT_GRACE_PERIOD)));
 
-        new FileWatcher(this.certificates, new FileWatcherCallback()).watch();
-        // disable watching the key file to prevent race condition bug - a certificate file change covers the key change
-        // new FileWatcher(this.privateKey, new FileWatcherCallback()).watch();
-
-        if (this.keyManager.compareAndSet(null, getKeyManager(getKeyStore()))) {
-            this.logger.info(String.format("Initialized KeyManager for %s and %s", this.privateKey, this.certificates));
+        List<Path> sources = new ArrayList<>();
+        List<String> descriptions = new ArrayList<>();
+        if (certificates != null && privateKey != null) {
+            Collections.addAll(sources, certificates, privateKey);
+            descriptions.add(String.format("%s and %s", privateKey, certificates));
+        }
+        if (identities != null) {
+            sources.add(identities);
+            descriptions.add(identities.toString());
         }
+        this.description = String.join(", ", descriptions);
+
+        Runnable callback = new RetryingCallback(new FileWatcherCallback());
+        this.expiryScheduler = new ExpiryScheduler(this.description, callback);
+        FileWatcher.watch(callback, sources.toArray(new Path[sources.size()]));
+
+        reload();
     }
 
     @Override
     public String chooseClientAlias(String[] strings, Principal[] principals, Socket socket) {
-        return this.keyManager.get().chooseClientAlias(strings, principals, socket);
+        return this.generation.get().aliasCache.chooseClientAlias(strings, principals, socket, null);
     }
 
     @Override
     public String chooseEngineClientAlias(String[] strings, Principal[] principals, SSLEngine sslEngine) {
-        return this.keyManager.get().chooseEngineClientAlias(strings, principals, sslEngine);
+        return this.generation.get().aliasCache.chooseClientAlias(strings, principals, null, sslEngine);
     }
 
     @Override
     public String chooseEngineServerAlias(String s, Principal[] principals, SSLEngine sslEngine) {
-        return this.keyManager.get().chooseEngineServerAlias(s, principals, sslEngine);
+        Generation generation = this.generation.get();
+
+        if (generation.sniIndex != null && sslEngine != null) {
+            String alias = generation.sniIndex.getAlias(s, sslEngine.getHandshakeSession());
+            if (alias != null) {
+                return alias;
+            }
+        }
+
+        return generation.aliasCache.chooseServerAlias(s, principals, null, sslEngine);
     }
 
     @Override
     public String chooseServerAlias(String s, Principal[] principals, Socket socket) {
-        return this.keyManager.get().chooseServerAlias(s, principals, socket);
+        Generation generation = this.generation.get();
+
+        if (generation.sniIndex != null && socket instanceof SSLSocket) {
+            String alias = generation.sniIndex.getAlias(s, ((SSLSocket) socket).getHandshakeSession());
+            if (alias != null) {
+                return alias;
+            }
+        }
+
+        return generation.aliasCache.chooseServerAlias(s, principals, socket, null);
     }
 
     @Override
     public X509Certificate[] getCertificateChain(String s) {
-        return this.keyManager.get().getCertificateChain(s);
+        Generation generation = resolve(s);
+        return generation != null ? generation.aliasCache.getCertificateChain(s) : null;
     }
 
     @Override
     public String[] getClientAliases(String s, Principal[] principals) {
-        return this.keyManager.get().getClientAliases(s, principals);
+        Generation generation = this.generation.get();
+        return generation.version(generation.keyManager.getClientAliases(s, principals));
     }
 
     @Override
     public PrivateKey getPrivateKey(String s) {
-        return this.keyManager.get().getPrivateKey(s);
+        Generation generation = resolve(s);
+        return generation != null ? generation.keyManager.getPrivateKey(generation.unversion(s)) : null;
     }
 
     @Override
     public String[] getServerAliases(String s, Principal[] principals) {
-        return this.keyManager.get().getServerAliases(s, principals);
+        Generation generation = this.generation.get();
+        return generation.version(generation.keyManager.getServerAliases(s, principals));
+    }
+
+    /**
+     * Reloads the key manager if the content of any of the files has changed since the active generation was built.  The reload is staged: the files are parsed, each private key is checked
+     * against the public key of its leaf certificate, and a new key manager is built, all before the new generation is swapped in.  If any stage fails, the active generation keeps serving.
+     * Decoded private keys are reused when only the certificates have changed.
+     *
+     * @return {@code true} if a new generation was activated
+     */
+    synchronized boolean reload() {
+        try {
+            List<Path[]> pairs = getPairs();
+
+            List<byte[]> contents = new ArrayList<>();
+            List<Fingerprint> fingerprints = new ArrayList<>();
+            for (Path[] pair : pairs) {
+                for (Path path : pair) {
+                    byte[] content = Files.readAllBytes(path);
+                    contents.add(content);
+                    fingerprints.add(Fingerprint.of(content));
+                }
+            }
+
+            Generation current = this.generation.get();
+            if (current != null && current.fingerprints.equals(fingerprints)) {
+                this.logger.fine(String.format("Content of %s unchanged", this.description));
+                return false;
+            }
+
+            if (pairs.isEmpty()) {
+                throw new IllegalStateException(String.format("%s does not contain an identity", this.description));
+            }
+
+            KeyStore keyStore = KeyStoreEntryCollector.identity();
+            Map<Fingerprint, PrivateKey> privateKeys = new HashMap<>();
+            Date notAfter = null;
+
+            for (int i = 0; i < pairs.size(); i++) {
+                Path certificatesPath = pairs.get(i)[0];
+                Path privateKeyPath = pairs.get(i)[1];
+                Fingerprint privateKeyFingerprint = fingerprints.get(2 * i + 1);
+
+                PrivateKey privateKey = current != null ? current.privateKeys.get(privateKeyFingerprint) : null;
+                if (privateKey == null) {
+                    privateKey = PrivateKeyFactory.generate(privateKeyPath, PemReader.read(privateKeyPath, contents.get(2 * i + 1)));
+                }
+                List<X509Certificate> certificates = X509CertificateFactory.generate(certificatesPath, PemReader.read(certificatesPath, contents.get(2 * i)));
+
+                if (certificates.isEmpty()) {
+                    throw new IllegalStateException(String.format("%s does not contain a certificate", certificatesPath));
+                }
+
+                if (!KeyPairMatcher.matches(privateKey, certificates.get(0).getPublicKey())) {
+                    throw new IllegalStateException(String.format("%s does not match the leaf certificate in %s", privateKeyPath, certificatesPath));
+                }
+
+                KeyStoreEntryCollector.accumulate(keyStore, privateKey, new char[0], certificates.toArray(new Certificate[certificates.size()]));
+                privateKeys.put(privateKeyFingerprint, privateKey);
+
+                if (notAfter == null || certificates.get(0).getNotAfter().before(notAfter)) {
+                    notAfter = certificates.get(0).getNotAfter();
+                }
+            }
+
+            Generation candidate = new Generation(current, this.gracePeriod, getKeyManager(keyStore), isSessionDependent(), fingerprints, privateKeys, pairs.size());
+
+            if (this.generation.getAndSet(candidate) == null) {
+                this.logger.info(String.format("Initialized KeyManager for %s", this.description));
+            } else {
+                this.logger.info(String.format("Updated KeyManager for %s", this.description));
+            }
+
+            this.expiryScheduler.schedule(notAfter);
+
+            return true;
+        } catch (NoSuchFileException e) {
+            if (this.generation.get() == null) {
+                throw new UndeclaredThrowableException(e);
+            }
+
+            this.logger.fine(String.format("%s does not exist, retaining current KeyManager", e.getFile()));
+            return false;
+        } catch (CertificateException | IOException | KeyStoreException | NoSuchAlgorithmException e) {
+            throw new UndeclaredThrowableException(e);
+        }
     }
 
     private X509ExtendedKeyManager getKeyManager(KeyStore keyStore) {
@@ -119,31 +276,162 @@ final class FileWatchingX509ExtendedKeyManager extends X509ExtendedKeyManager {
         }
     }
 
-    private KeyStore getKeyStore() {
-        try {
-            KeyStore keyStore = KeyStoreEntryCollector.identity();
-            PrivateKey privateKey = PrivateKeyFactory.generate(this.privateKey);
-            List<X509Certificate> certificates = X509CertificateFactory.generate(this.certificates);
+    /**
+     * Returns whether the key manager's alias selections may depend on the handshake session.  Only the {@code SunX509} key manager ignores the session.
+     */
+    private boolean isSessionDependent() {
+        return !"SunX509".equalsIgnoreCase(this.keyManagerFactory.getAlgorithm());
+    }
 
-            KeyStoreEntryCollector.accumulate(keyStore, privateKey, new char[0], certificates.toArray(new Certificate[certificates.size()]));
+    /**
+     * Returns the generation that issued {@code alias}: the active generation, or the previous generation while it is within its grace period.  Aliases without a generation are resolved
+     * against the active generation.
+     */
+    private Generation resolve(String alias) {
+        Generation current = this.generation.get();
 
-            return keyStore;
-        } catch (CertificateException | IOException | KeyStoreException | NoSuchAlgorithmException e) {
-            throw new UndeclaredThrowableException(e);
+        long number = Generation.getNumber(alias);
+        if (number == -1 || number == current.number) {
+            return current;
+        }
+
+        Generation previous = current.getPrevious();
+        return previous != null && previous.number == number ? previous : null;
+    }
+
+    /**
+     * Returns the certificate and private key file pairs to load.  The pair given explicitly comes first, followed by the pairs in the identities directory in the order of their names.
+     */
+    private List<Path[]> getPairs() throws IOException {
+        List<Path[]> pairs = new ArrayList<>();
+
+        if (this.certificates != null && this.privateKey != null) {
+            pairs.add(new Path[]{this.certificates, this.privateKey});
+        }
+
+        if (this.identities != null && Files.isDirectory(this.identities)) {
+            List<Path> candidates = new ArrayList<>();
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(this.identities, "*" + CERTIFICATES_EXTENSION)) {
+                for (Path candidate : directoryStream) {
+                    candidates.add(candidate);
+                }
+            }
+            Collections.sort(candidates);
+
+            for (Path candidate : candidates) {
+                String name = candidate.getFileName().toString();
+                Path privateKey = candidate.resolveSibling(name.substring(0, name.length() - CERTIFICATES_EXTENSION.length()) + PRIVATE_KEY_EXTENSION);
+
+                if (Files.exists(privateKey)) {
+                    pairs.add(new Path[]{candidate, privateKey});
+                } else {
+                    this.logger.fine(String.format("Ignoring %s without a matching private key", candidate));
+                }
+            }
+        }
+
+        return pairs;
+    }
+
+    private static final class Generation {
+
+        private final AliasCache aliasCache;
+
+        private final List<Fingerprint> fingerprints;
+
+        private final long graceDeadline;
+
+        private final X509ExtendedKeyManager keyManager;
+
+        private final long number;
+
+        private final String prefix;
+
+        private final Map<Fingerprint, PrivateKey> privateKeys;
+
+        private final SniIndex sniIndex;
+
+        private volatile Generation previous;
+
+        private Generation(Generation previous, long gracePeriod, X509ExtendedKeyManager keyManager, boolean sessionDependent, List<Fingerprint> fingerprints,
+                           Map<Fingerprint, PrivateKey> privateKeys, int identities) {
+            this.number = previous != null ? previous.number + 1 : 0;
+            this.prefix = String.format("%d:", this.number);
+            this.aliasCache = new AliasCache(keyManager, this.prefix, sessionDependent);
+            this.keyManager = keyManager;
+            this.fingerprints = fingerprints;
+            this.privateKeys = privateKeys;
+            this.sniIndex = identities > 1 ? new SniIndex(keyManager, this.prefix) : null;
+
+            this.graceDeadline = System.nanoTime() + gracePeriod;
+            this.previous = previous != null && gracePeriod > 0 ? previous : null;
+            if (previous != null) {
+                previous.previous = null;
+            }
         }
+
+        /**
+         * Returns the number of the generation that issued {@code alias}, or {@code -1} if the alias does not carry one.
+         */
+        private static long getNumber(String alias) {
+            if (alias == null) {
+                return -1;
+            }
+
+            long number = 0;
+            for (int i = 0; i < alias.length(); i++) {
+                char c = alias.charAt(i);
+
+                if (c == ':' && i > 0) {
+                    return number;
+                } else if (c < '0' || c > '9' || i > 18) {
+                    return -1;
+                }
+
+                number = number * 10 + (c - '0');
+            }
+
+            return -1;
+        }
+
+        /**
+         * Returns the previous generation while it is within its grace period, releasing it once the grace period has passed.
+         */
+        private Generation getPrevious() {
+            Generation previous = this.previous;
+
+            if (previous != null && System.nanoTime() - this.graceDeadline >= 0) {
+                this.previous = null;
+                return null;
+            }
+
+            return previous;
+        }
+
+        private String unversion(String alias) {
+            return alias.startsWith(this.prefix) ? alias.substring(this.prefix.length()) : alias;
+        }
+
+        private String[] version(String[] aliases) {
+            if (aliases == null) {
+                return null;
+            }
+
+            String[] versioned = new String[aliases.length];
+            for (int i = 0; i < aliases.length; i++) {
+                versioned[i] = this.prefix + aliases[i];
+            }
+
+            return versioned;
+        }
+
     }
 
     private final class FileWatcherCallback implements Runnable {
 
         @Override
         public void run() {
-            if (FileWatchingX509ExtendedKeyManager.this.keyManager.getAndSet(getKeyManager(getKeyStore())) == null) {
-                FileWatchingX509ExtendedKeyManager.this.logger.info(String.format("Initialized KeyManager for %s and %s", FileWatchingX509ExtendedKeyManager.this.privateKey,
-                    FileWatchingX509ExtendedKeyManager.this.certificates));
-            } else {
-                FileWatchingX509ExtendedKeyManager.this.logger.info(String.format("Updated KeyManager for %s and %s", FileWatchingX509ExtendedKeyManager.this.privateKey,
-                    FileWatchingX509ExtendedKeyManager.this.certificates));
-            }
+            reload();
         }
 
     }
@@ -21,24 +21,41 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509ExtendedTrustManager;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
-final class FileWatchingX509ExtendedTrustManager extends X509ExtendedTrustManager {
+final class FileWatchingX509ExtendedTrustManager extends X509ExtendedTrustManager implements GenerationalTrustManager {
+
+    static final String PARALLEL_ENABLED = "org.cloudfoundry.security.trustmanager.parallel.enabled";
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
     private final Path certificates;
 
-    private final AtomicReference<X509ExtendedTrustManager> trustManager = new AtomicReference<>();
+    private final ExpiryScheduler expiryScheduler;
+
+    private final AtomicReference<Generation> generation = new AtomicReference<>();
+
+    private final List<WeakReference<Runnable>> listeners = new CopyOnWriteArrayList<>();
 
     private final TrustManagerFactory trustManagerFactory;
 
@@ -46,54 +63,151 @@ final class FileWatchingX509ExtendedTrustManager extends X509ExtendedTrustManage
         this.certificates = certificates;
         this.trustManagerFactory = trustManagerFactory;
 
-        new FileWatcher(this.certificates, new FileWatcherCallback()).watch();
+        Runnable callback = new RetryingCallback(new FileWatcherCallback());
+        this.expiryScheduler = new ExpiryScheduler(this.certificates, callback);
+        FileWatcher.watch(callback, this.certificates);
 
-        if (this.trustManager.compareAndSet(null, getTrustManager(getKeyStore()))) {
-            this.logger.info(String.format("Initialized TrustManager for %s", this.certificates));
-        }
+        reload();
     }
 
     @Override
     public void checkClientTrusted(X509Certificate[] x509Certificates, String s, Socket socket) throws CertificateException {
-        this.trustManager.get().checkClientTrusted(x509Certificates, s, socket);
+        this.generation.get().trustManager.checkClientTrusted(x509Certificates, s, socket);
     }
 
     @Override
     public void checkClientTrusted(X509Certificate[] x509Certificates, String s, SSLEngine sslEngine) throws CertificateException {
-        this.trustManager.get().checkClientTrusted(x509Certificates, s, sslEngine);
+        this.generation.get().trustManager.checkClientTrusted(x509Certificates, s, sslEngine);
     }
 
     @Override
     public void checkClientTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-        this.trustManager.get().checkClientTrusted(x509Certificates, s);
+        this.generation.get().trustManager.checkClientTrusted(x509Certificates, s);
     }
 
     @Override
     public void checkServerTrusted(X509Certificate[] x509Certificates, String s, SSLEngine sslEngine) throws CertificateException {
-        this.trustManager.get().checkServerTrusted(x509Certificates, s, sslEngine);
+        this.generation.get().trustManager.checkServerTrusted(x509Certificates, s, sslEngine);
     }
 
     @Override
     public void checkServerTrusted(X509Certificate[] x509Certificates, String s, Socket socket) throws CertificateException {
-        this.trustManager.get().checkServerTrusted(x509Certificates, s, socket);
+        this.generation.get().trustManager.checkServerTrusted(x509Certificates, s, socket);
     }
 
     @Override
     public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-        this.trustManager.get().checkServerTrusted(x509Certificates, s);
+        this.generation.get().trustManager.checkServerTrusted(x509Certificates, s);
     }
 
     @Override
     public X509Certificate[] getAcceptedIssuers() {
-        return this.trustManager.get().getAcceptedIssuers();
+        return this.generation.get().trustManager.getAcceptedIssuers();
+    }
+
+    @Override
+    public long getGeneration() {
+        return this.generation.get().number;
+    }
+
+    /**
+     * Registers {@code listener} to be run on the reloading thread whenever a new generation has been activated.  The listener is held weakly, so that registering it does not keep its owner
+     * reachable.
+     */
+    void addListener(Runnable listener) {
+        this.listeners.add(new WeakReference<>(listener));
     }
 
-    private KeyStore getKeyStore() {
+    /**
+     * Reloads the trust manager if the content of the file has changed since the active generation was built.  Certificates are keyed by the fingerprint of their DER encoding so that only
+     * blocks that were not part of the active generation are decoded, and certificates that remain in the bundle keep both their {@link X509Certificate} instance and their alias.
+     *
+     * @return {@code true} if a new generation was activated
+     */
+    synchronized boolean reload() {
+        try {
+            byte[] content = Files.readAllBytes(this.certificates);
+            Fingerprint fingerprint = Fingerprint.of(content);
+
+            Generation current = this.generation.get();
+            if (current != null && current.fingerprint.equals(fingerprint)) {
+                this.logger.fine(String.format("Content of %s unchanged", this.certificates));
+                return false;
+            }
+
+            Map<Fingerprint, Entry> previous = current != null ? current.entries : Collections.<Fingerprint, Entry>emptyMap();
+            Map<Fingerprint, Entry> entries = new LinkedHashMap<>();
+            List<Fingerprint> added = new ArrayList<>();
+            List<PemObject> addedPemObjects = new ArrayList<>();
+
+            for (PemObject pemObject : PemReader.read(this.certificates, content)) {
+                Fingerprint candidate = pemObject.getFingerprint();
+                if (entries.containsKey(candidate)) {
+                    continue;
+                }
+
+                Entry entry = previous.get(candidate);
+                entries.put(candidate, entry);
+
+                if (entry == null) {
+                    added.add(candidate);
+                    addedPemObjects.add(pemObject);
+                }
+            }
+
+            List<X509Certificate> certificates = SystemProperties.getBoolean(PARALLEL_ENABLED, false) ?
+                X509CertificateFactory.generateParallel(this.certificates, addedPemObjects) : X509CertificateFactory.generate(this.certificates, addedPemObjects);
+
+            for (int i = 0; i < added.size(); i++) {
+                entries.put(added.get(i), new Entry(KeyStoreEntryCollector.getAlias(), certificates.get(i)));
+            }
+
+            if (current != null && entries.keySet().equals(previous.keySet())) {
+                this.generation.set(new Generation(current.number, current.trustManager, fingerprint, current.entries));
+                this.logger.fine(String.format("Certificates in %s unchanged", this.certificates));
+                return false;
+            }
+
+            Generation candidate = new Generation(current != null ? current.number + 1 : 0, getTrustManager(getKeyStore(entries.values())), fingerprint, entries);
+
+            if (this.generation.getAndSet(candidate) == null) {
+                this.logger.info(String.format("Initialized TrustManager for %s", this.certificates));
+            } else {
+                this.logger.info(String.format("Updated TrustManager for %s: %d added, %d removed", this.certificates, added.size(), previous.size() - (entries.size() - added.size())));
+            }
+
+            this.expiryScheduler.scheduleEach(getExpiries(entries.values()));
+            notifyListeners();
+
+            return true;
+        } catch (NoSuchFileException e) {
+            if (this.generation.get() == null) {
+                throw new UndeclaredThrowableException(e);
+            }
+
+            this.logger.fine(String.format("%s does not exist, retaining current TrustManager", e.getFile()));
+            return false;
+        } catch (CertificateException | IOException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private static List<Date> getExpiries(Collection<Entry> entries) {
+        List<Date> expiries = new ArrayList<>(entries.size());
+
+        for (Entry entry : entries) {
+            expiries.add(entry.certificate.getNotAfter());
+        }
+
+        return expiries;
+    }
+
+    private static KeyStore getKeyStore(Collection<Entry> entries) {
         try {
             KeyStore keyStore = KeyStoreEntryCollector.identity();
 
-            for (X509Certificate certificate : X509CertificateFactory.generate(this.certificates)) {
-                KeyStoreEntryCollector.accumulate(keyStore, certificate);
+            for (Entry entry : entries) {
+                KeyStoreEntryCollector.accumulate(keyStore, entry.alias, entry.certificate);
             }
 
             return keyStore;
@@ -118,15 +232,55 @@ final class FileWatchingX509ExtendedTrustManager extends X509ExtendedTrustManage
         }
     }
 
+    private void notifyListeners() {
+        for (WeakReference<Runnable> reference : this.listeners) {
+            Runnable listener = reference.get();
+
+            if (listener == null) {
+                this.listeners.remove(reference);
+            } else {
+                listener.run();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final String alias;
+
+        private final X509Certificate certificate;
+
+        private Entry(String alias, X509Certificate certificate) {
+            this.alias = alias;
+            this.certificate = certificate;
+        }
+
+    }
+
+    private static final class Generation {
+
+        private final Map<Fingerprint, Entry> entries;
+
+        private final Fingerprint fingerprint;
+
+        private final long number;
+
+        private final X509ExtendedTrustManager trustManager;
+
+        private Generation(long number, X509ExtendedTrustManager trustManager, Fingerprint fingerprint, Map<Fingerprint, Entry> entries) {
+            this.number = number;
+            this.trustManager = trustManager;
+            this.fingerprint = fingerprint;
+            this.entries = entries;
+        }
+
+    }
+
     private class FileWatcherCallback implements Runnable {
 
         @Override
         public void run() {
-            if (FileWatchingX509ExtendedTrustManager.this.trustManager.getAndSet(getTrustManager(getKeyStore())) == null) {
-                FileWatchingX509ExtendedTrustManager.this.logger.info(String.format("Initialized TrustManager for %s", FileWatchingX509ExtendedTrustManager.this.certificates));
-            } else {
-                FileWatchingX509ExtendedTrustManager.this.logger.info(String.format("Updated TrustManager for %s", FileWatchingX509ExtendedTrustManager.this.certificates));
-            }
+            reload();
         }
 
     }
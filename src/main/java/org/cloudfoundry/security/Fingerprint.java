@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * A SHA-256 digest of some content, usable as a map key.
+ */
+final class Fingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = new ThreadLocal<MessageDigest>() {
+
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+    };
+
+    private final byte[] digest;
+
+    private final int hashCode;
+
+    private Fingerprint(byte[] digest) {
+        this.digest = digest;
+        this.hashCode = Arrays.hashCode(digest);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Fingerprint that = (Fingerprint) o;
+        return this.hashCode == that.hashCode && MessageDigest.isEqual(this.digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(this.digest.length * 2);
+
+        for (byte b : this.digest) {
+            sb.append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+        }
+
+        return sb.toString();
+    }
+
+    static Fingerprint of(byte[] content) {
+        return of(content, 0, content.length);
+    }
+
+    /**
+     * Returns the {@link Fingerprint} of the concatenated DER encodings of {@code certificates}.
+     */
+    static Fingerprint of(X509Certificate[] certificates) throws CertificateEncodingException {
+        MessageDigest messageDigest = MESSAGE_DIGEST.get();
+
+        try {
+            for (X509Certificate certificate : certificates) {
+                messageDigest.update(certificate.getEncoded());
+            }
+        } catch (CertificateEncodingException e) {
+            messageDigest.reset();
+            throw e;
+        }
+
+        return new Fingerprint(messageDigest.digest());
+    }
+
+    static Fingerprint of(byte[] content, int offset, int length) {
+        MessageDigest messageDigest = MESSAGE_DIGEST.get();
+        messageDigest.update(content, offset, length);
+        return new Fingerprint(messageDigest.digest());
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.Provider;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link KeyStoreSpi} that holds entries as plain references.  Unlike the default {@code PKCS12} and {@code JKS} types, keys are neither encrypted when they are set nor decrypted when they
+ * are read, so handing in-memory material to a {@code KeyManagerFactory} or {@code TrustManagerFactory} costs no password-based encryption.  Passwords are ignored.
+ */
+final class InMemoryKeyStoreSpi extends KeyStoreSpi {
+
+    static final String TYPE = "CloudFoundryContainer";
+
+    private static final Provider PROVIDER = new InMemoryProvider();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    @Override
+    public Enumeration<String> engineAliases() {
+        return Collections.enumeration(this.entries.keySet());
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+        return this.entries.containsKey(alias);
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) {
+        this.entries.remove(alias);
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+        Entry entry = this.entries.get(alias);
+
+        if (entry == null) {
+            return null;
+        } else if (entry.key != null) {
+            return entry.chain == null || entry.chain.length == 0 ? null : entry.chain[0];
+        } else {
+            return entry.certificate;
+        }
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate certificate) {
+        for (Map.Entry<String, Entry> candidate : this.entries.entrySet()) {
+            if (certificate.equals(engineGetCertificate(candidate.getKey()))) {
+                return candidate.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+        Entry entry = this.entries.get(alias);
+        return entry == null || entry.chain == null ? null : entry.chain.clone();
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+        Entry entry = this.entries.get(alias);
+        return entry == null ? null : new Date(entry.creationDate);
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password) {
+        Entry entry = this.entries.get(alias);
+        return entry == null ? null : entry.key;
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+        Entry entry = this.entries.get(alias);
+        return entry != null && entry.certificate != null;
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+        Entry entry = this.entries.get(alias);
+        return entry != null && entry.key != null;
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password) throws IOException {
+        if (stream != null) {
+            throw new IOException(String.format("%s KeyStores cannot be loaded from a stream", TYPE));
+        }
+
+        this.entries.clear();
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate certificate) {
+        this.entries.put(alias, new Entry(null, null, certificate));
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+        this.entries.put(alias, new Entry(key, chain == null ? null : chain.clone(), null));
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) throws KeyStoreException {
+        throw new KeyStoreException(String.format("%s KeyStores do not support protected keys", TYPE));
+    }
+
+    @Override
+    public int engineSize() {
+        return this.entries.size();
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password) throws IOException {
+        throw new IOException(String.format("%s KeyStores cannot be stored", TYPE));
+    }
+
+    static KeyStore newKeyStore() {
+        return new KeyStore(new InMemoryKeyStoreSpi(), PROVIDER, TYPE) {
+
+        };
+    }
+
+    private static final class Entry {
+
+        private final Certificate certificate;
+
+        private final Certificate[] chain;
+
+        private final long creationDate = System.currentTimeMillis();
+
+        private final Key key;
+
+        private Entry(Key key, Certificate[] chain, Certificate certificate) {
+            this.key = key;
+            this.chain = chain;
+            this.certificate = certificate;
+        }
+
+    }
+
+    private static final class InMemoryProvider extends Provider {
+
+        private static final long serialVersionUID = 4216281736502964312L;
+
+        private InMemoryProvider() {
+            super("Cloud Foundry Container KeyStore", 1.0, "In-memory KeyStore for Cloud Foundry container artifacts");
+        }
+
+    }
+
+}
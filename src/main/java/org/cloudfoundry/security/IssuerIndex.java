@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index from the subjects and subject key identifiers of the accepted issuers of a set of trust managers to the first trust manager that accepts them.  The index is complete if every trust
+ * manager advertises its accepted issuers, in which case a chain that matches none of them cannot be trusted by any of the trust managers.
+ */
+final class IssuerIndex {
+
+    static final int UNKNOWN = -1;
+
+    private final boolean complete;
+
+    private final long generation;
+
+    private final Map<KeyIdentifier, Integer> keyIdentifiers = new HashMap<>();
+
+    private final Map<X500Principal, Integer> subjects = new HashMap<>();
+
+    IssuerIndex(X509TrustManager[] trustManagers, long generation) {
+        this.generation = generation;
+
+        boolean complete = true;
+        for (int i = 0; i < trustManagers.length; i++) {
+            X509Certificate[] acceptedIssuers = trustManagers[i].getAcceptedIssuers();
+
+            if (acceptedIssuers == null || acceptedIssuers.length == 0) {
+                complete = false;
+                continue;
+            }
+
+            for (X509Certificate acceptedIssuer : acceptedIssuers) {
+                if (!this.subjects.containsKey(acceptedIssuer.getSubjectX500Principal())) {
+                    this.subjects.put(acceptedIssuer.getSubjectX500Principal(), i);
+                }
+
+                KeyIdentifier keyIdentifier = KeyIdentifier.ofSubject(acceptedIssuer);
+                if (keyIdentifier != null && !this.keyIdentifiers.containsKey(keyIdentifier)) {
+                    this.keyIdentifiers.put(keyIdentifier, i);
+                }
+            }
+        }
+        this.complete = complete;
+    }
+
+    long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Returns the index of the trust manager that accepts an issuer of {@code chain}, or {@link #UNKNOWN}.  The chain is searched from its root towards its leaf, matching each certificate's
+     * authority key identifier and issuer, and the certificate itself in case it is an accepted issuer.
+     */
+    int getTrustManager(X509Certificate[] chain) {
+        for (int i = chain.length - 1; i >= 0; i--) {
+            X509Certificate certificate = chain[i];
+
+            KeyIdentifier keyIdentifier = KeyIdentifier.ofAuthority(certificate);
+            Integer candidate = keyIdentifier != null ? this.keyIdentifiers.get(keyIdentifier) : null;
+
+            if (candidate == null) {
+                candidate = this.subjects.get(certificate.getIssuerX500Principal());
+            }
+            if (candidate == null) {
+                candidate = this.subjects.get(certificate.getSubjectX500Principal());
+            }
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    boolean isComplete() {
+        return this.complete;
+    }
+
+}
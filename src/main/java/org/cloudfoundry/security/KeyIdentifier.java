@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.security.cert.X509Certificate;
+import java.security.cert.X509Extension;
+import java.util.Arrays;
+
+/**
+ * The key identifier of a certificate's subject key identifier extension, or of a certificate's or CRL's authority key identifier extension, usable as a map key.
+ */
+final class KeyIdentifier {
+
+    private static final String AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+
+    private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+
+    private static final int TAG_KEY_IDENTIFIER = 0x80;
+
+    private static final int TAG_OCTET_STRING = 0x04;
+
+    private static final int TAG_SEQUENCE = 0x30;
+
+    private final int hashCode;
+
+    private final byte[] value;
+
+    private KeyIdentifier(byte[] value) {
+        this.value = value;
+        this.hashCode = Arrays.hashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        KeyIdentifier that = (KeyIdentifier) o;
+        return this.hashCode == that.hashCode && Arrays.equals(this.value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    /**
+     * Returns the key identifier of the authority key identifier extension of {@code extension}, a certificate or CRL, or {@code null} if it does not have one.
+     */
+    static KeyIdentifier ofAuthority(X509Extension extension) {
+        return read(extension.getExtensionValue(AUTHORITY_KEY_IDENTIFIER), TAG_OCTET_STRING, TAG_SEQUENCE, TAG_KEY_IDENTIFIER);
+    }
+
+    /**
+     * Returns the key identifier of the subject key identifier extension of {@code certificate}, or {@code null} if it does not have one.
+     */
+    static KeyIdentifier ofSubject(X509Certificate certificate) {
+        return read(certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER), TAG_OCTET_STRING, TAG_OCTET_STRING);
+    }
+
+    /**
+     * Descends through the first element of each of the nested DER {@code tags} and returns the content of the innermost one.
+     */
+    private static KeyIdentifier read(byte[] der, int... tags) {
+        if (der == null) {
+            return null;
+        }
+
+        int position = 0;
+        int end = der.length;
+
+        for (int tag : tags) {
+            if (position + 2 > end || (der[position++] & 0xFF) != tag) {
+                return null;
+            }
+
+            int length = der[position++] & 0xFF;
+            if (length > 0x7F) {
+                int octets = length & 0x7F;
+                if (octets > 3 || position + octets > end) {
+                    return null;
+                }
+
+                length = 0;
+                for (int i = 0; i < octets; i++) {
+                    length = (length << 8) | (der[position++] & 0xFF);
+                }
+            }
+
+            if (position + length > end) {
+                return null;
+            }
+
+            end = position + length;
+        }
+
+        return new KeyIdentifier(Arrays.copyOfRange(der, position, end));
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAKey;
+
+/**
+ * Checks that a private key belongs to a public key.  RSA keys are compared by modulus.  Other keys are checked by signing a challenge with the private key and verifying it with the public
+ * key.
+ */
+final class KeyPairMatcher {
+
+    private static final byte[] CHALLENGE = "org.cloudfoundry.security.KeyPairMatcher".getBytes(StandardCharsets.US_ASCII);
+
+    private KeyPairMatcher() {
+    }
+
+    static boolean matches(PrivateKey privateKey, PublicKey publicKey) {
+        if (privateKey instanceof RSAKey && publicKey instanceof RSAKey) {
+            return ((RSAKey) privateKey).getModulus().equals(((RSAKey) publicKey).getModulus());
+        }
+
+        if (!privateKey.getAlgorithm().equals(publicKey.getAlgorithm())) {
+            return false;
+        }
+
+        String algorithm = getSignatureAlgorithm(privateKey.getAlgorithm());
+        if (algorithm == null) {
+            return true;
+        }
+
+        try {
+            Signature signature = Signature.getInstance(algorithm);
+            signature.initSign(privateKey);
+            signature.update(CHALLENGE);
+            byte[] signed = signature.sign();
+
+            signature.initVerify(publicKey);
+            signature.update(CHALLENGE);
+            return signature.verify(signed);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    private static String getSignatureAlgorithm(String keyAlgorithm) {
+        switch (keyAlgorithm) {
+            case "DSA":
+                return "SHA256withDSA";
+            case "EC":
+                return "SHA256withECDSA";
+            case "EdDSA":
+            case "Ed25519":
+            case "Ed448":
+                return keyAlgorithm;
+            default:
+                return null;
+        }
+    }
+
+}
@@ -30,7 +30,11 @@ final class KeyStoreEntryCollector {
     private static final AtomicInteger COUNTER = new AtomicInteger();
 
     static KeyStore accumulate(KeyStore keyStore, Certificate certificate) throws KeyStoreException {
-        keyStore.setCertificateEntry(getAlias(), certificate);
+        return accumulate(keyStore, getAlias(), certificate);
+    }
+
+    static KeyStore accumulate(KeyStore keyStore, String alias, Certificate certificate) throws KeyStoreException {
+        keyStore.setCertificateEntry(alias, certificate);
         return keyStore;
     }
 
@@ -40,12 +44,12 @@ final class KeyStoreEntryCollector {
     }
 
     static KeyStore identity() throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
-        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        KeyStore keyStore = InMemoryKeyStoreSpi.newKeyStore();
         keyStore.load(null);
         return keyStore;
     }
 
-    private static String getAlias() {
+    static String getAlias() {
         return String.format("cloud-foundry-container-%03d", COUNTER.getAndIncrement());
     }
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+final class PemObject {
+
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<>();
+
+    private final int end;
+
+    private final int length;
+
+    private final byte[] source;
+
+    private final int start;
+
+    private final String type;
+
+    private volatile byte[] content;
+
+    PemObject(String type, byte[] content) {
+        this(type, null, 0, 0, content.length);
+        this.content = content;
+    }
+
+    PemObject(String type, byte[] source, int start, int end, int length) {
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.length = length;
+    }
+
+    @Override
+    public String toString() {
+        return this.type;
+    }
+
+    /**
+     * Returns the DER content of the block, decoding it on first use.
+     */
+    byte[] getContent() {
+        byte[] content = this.content;
+
+        if (content == null) {
+            content = new byte[this.length];
+            PemReader.decode(this.source, this.start, this.end, content);
+            this.content = content;
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns the {@link Fingerprint} of the DER content of the block.  If the content has not yet been decoded, it is decoded into a per-thread scratch buffer rather than a new array.
+     */
+    Fingerprint getFingerprint() {
+        byte[] content = this.content;
+        if (content != null) {
+            return Fingerprint.of(content, 0, content.length);
+        }
+
+        byte[] scratch = SCRATCH.get();
+        if (scratch == null || scratch.length < this.length) {
+            scratch = new byte[Math.max(this.length, 4096)];
+            SCRATCH.set(scratch);
+        }
+
+        PemReader.decode(this.source, this.start, this.end, scratch);
+        return Fingerprint.of(scratch, 0, this.length);
+    }
+
+    String getType() {
+        return this.type;
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits PEM encoded content into its blocks.  The Base64 body of each block is validated up front, but only decoded into DER from the raw bytes when it is first needed.
+ */
+final class PemReader {
+
+    private static final byte[] BEGIN = "-----BEGIN ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] DASHES = "-----".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] DECODE = new byte[256];
+
+    private static final byte[] END = "-----END ".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+
+        byte[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < alphabet.length; i++) {
+            DECODE[alphabet[i]] = (byte) i;
+        }
+    }
+
+    static List<PemObject> read(Path path) throws IOException {
+        return read(path, Files.readAllBytes(path));
+    }
+
+    static List<PemObject> read(Object source, byte[] content) {
+        List<PemObject> pemObjects = new ArrayList<>();
+
+        int position = 0;
+        int begin;
+        while ((begin = indexOf(content, BEGIN, position, content.length)) != -1) {
+            int typeStart = begin + BEGIN.length;
+            int typeEnd = indexOf(content, DASHES, typeStart, lineEnd(content, typeStart));
+            if (typeEnd == -1) {
+                throw new IllegalStateException(String.format("%s contains a malformed PEM header", source));
+            }
+
+            String type = new String(content, typeStart, typeEnd - typeStart, StandardCharsets.US_ASCII);
+            byte[] footer = String.format("-----END %s-----", type).getBytes(StandardCharsets.US_ASCII);
+
+            int bodyStart = typeEnd + DASHES.length;
+            int end = indexOf(content, END, bodyStart, content.length);
+            if (end == -1 || indexOf(content, footer, end, Math.min(end + footer.length, content.length)) != end) {
+                throw new IllegalStateException(String.format("%s contains a PEM block without a matching footer: %s", source, type));
+            }
+
+            pemObjects.add(new PemObject(type, content, bodyStart, end, getDecodedLength(source, type, content, bodyStart, end)));
+            position = end + footer.length;
+        }
+
+        return pemObjects;
+    }
+
+    static void decode(byte[] content, int start, int end, byte[] decoded) {
+        int accumulator = 0;
+        int bits = 0;
+        int index = 0;
+
+        for (int i = start; i < end; i++) {
+            int value = DECODE[content[i] & 0xFF];
+            if (value == -1) {
+                continue;
+            }
+
+            accumulator = (accumulator << 6) | value;
+            bits += 6;
+
+            if (bits >= 8) {
+                bits -= 8;
+                decoded[index++] = (byte) (accumulator >> bits);
+                accumulator &= (1 << bits) - 1;
+            }
+        }
+    }
+
+    private static int getDecodedLength(Object source, String type, byte[] content, int start, int end) {
+        int symbols = 0;
+        for (int i = start; i < end; i++) {
+            byte b = content[i];
+
+            if (DECODE[b & 0xFF] != -1) {
+                symbols++;
+            } else if (b != '=' && !isWhitespace(b)) {
+                throw new IllegalStateException(String.format("%s contains a PEM block with unsupported content: %s", source, type));
+            }
+        }
+
+        return symbols * 3 / 4;
+    }
+
+    private static int indexOf(byte[] content, byte[] target, int from, int to) {
+        outer:
+        for (int i = from; i <= to - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (content[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == '\n' || b == '\r' || b == ' ' || b == '\t';
+    }
+
+    private static int lineEnd(byte[] content, int from) {
+        for (int i = from; i < content.length; i++) {
+            if (content[i] == '\n' || content[i] == '\r') {
+                return i;
+            }
+        }
+
+        return content.length;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A watcher for file changes that polls the attributes of a file on the {@link Scheduler} instead of relying on filesystem events, for filesystems where a {@link java.nio.file.WatchService}
+ * does not deliver them.  Each poll is a single {@code stat} of the file; its last modified time, size and file key are compared with the previous poll.  A directory is polled together with
+ * each of the files it contains, as rewriting a file in place does not change the attributes of its directory.
+ */
+final class PollingFileWatcher implements Runnable {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Runnable callback;
+
+    private final Path source;
+
+    private Snapshot snapshot;
+
+    private PollingFileWatcher(Path source, Runnable callback) {
+        this.callback = callback;
+        this.source = source;
+        this.snapshot = Snapshot.of(source);
+    }
+
+    @Override
+    public void run() {
+        Snapshot snapshot = Snapshot.of(this.source);
+
+        if (Objects.equals(this.snapshot, snapshot)) {
+            return;
+        }
+
+        this.logger.fine(String.format("Detected change to %s", this.source));
+        this.snapshot = snapshot;
+
+        try {
+            this.callback.run();
+        } catch (RuntimeException e) {
+            this.logger.log(Level.WARNING, String.format("Unable to process change to %s", this.source), e);
+        }
+    }
+
+    /**
+     * Polls {@code source} every {@code interval} milliseconds, calling {@code callback} whenever its attributes have changed.
+     */
+    static void watch(Path source, Runnable callback, long interval) {
+        Scheduler.scheduleWithFixedDelay(new PollingFileWatcher(source, callback), interval, interval, TimeUnit.MILLISECONDS);
+        Logger.getLogger(PollingFileWatcher.class.getName()).info(String.format("Start polling %s every %d ms", source, interval));
+    }
+
+    private static final class Snapshot {
+
+        private final Map<Path, Snapshot> entries;
+
+        private final Object fileKey;
+
+        private final FileTime lastModifiedTime;
+
+        private final long size;
+
+        private Snapshot(BasicFileAttributes attributes, Map<Path, Snapshot> entries) {
+            this.entries = entries;
+            this.fileKey = attributes.fileKey();
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Snapshot snapshot = (Snapshot) o;
+            return this.size == snapshot.size &&
+                Objects.equals(this.fileKey, snapshot.fileKey) &&
+                Objects.equals(this.lastModifiedTime, snapshot.lastModifiedTime) &&
+                Objects.equals(this.entries, snapshot.entries);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.fileKey, this.lastModifiedTime, this.size, this.entries);
+        }
+
+        private static Map<Path, Snapshot> getEntries(Path directory) throws IOException {
+            Map<Path, Snapshot> entries = new HashMap<>();
+
+            try (DirectoryStream<Path> candidates = Files.newDirectoryStream(directory)) {
+                for (Path candidate : candidates) {
+                    try {
+                        entries.put(candidate.getFileName(), new Snapshot(Files.readAttributes(candidate, BasicFileAttributes.class), null));
+                    } catch (IOException e) {
+                        entries.put(candidate.getFileName(), null);
+                    }
+                }
+            }
+
+            return entries;
+        }
+
+        private static Snapshot of(Path source) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+                return new Snapshot(attributes, attributes.isDirectory() ? getEntries(source) : null);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -16,38 +16,219 @@
 
 package org.cloudfoundry.security;
 
-import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
-import org.bouncycastle.openssl.PEMKeyPair;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
-
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * Generates a {@link PrivateKey} from PKCS#1 ({@code RSA PRIVATE KEY}), SEC1 ({@code EC PRIVATE KEY}) or PKCS#8 ({@code PRIVATE KEY}) PEM content.  PKCS#1 and SEC1 keys are wrapped into a
+ * PKCS#8 structure so that they can be handed directly to the JDK {@link KeyFactory}.
+ */
 final class PrivateKeyFactory {
 
-    private static final JcaPEMKeyConverter CONVERTER = new JcaPEMKeyConverter();
+    private static final byte CONTEXT_0 = (byte) 0xA0;
+
+    private static final byte[] DER_NULL = new byte[]{0x05, 0x00};
+
+    private static final byte[] DSA = new byte[]{0x06, 0x07, 0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x38, 0x04, 0x01};
+
+    private static final byte[] EC = new byte[]{0x06, 0x07, 0x2A, (byte) 0x86, 0x48, (byte) 0xCE, 0x3D, 0x02, 0x01};
+
+    private static final byte[] ED25519 = new byte[]{0x06, 0x03, 0x2B, 0x65, 0x70};
+
+    private static final byte[] ED448 = new byte[]{0x06, 0x03, 0x2B, 0x65, 0x71};
+
+    private static final byte INTEGER = 0x02;
+
+    private static final byte OBJECT_IDENTIFIER = 0x06;
+
+    private static final byte OCTET_STRING = 0x04;
+
+    private static final byte[] RSA = new byte[]{0x06, 0x09, 0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x01, 0x01};
+
+    private static final byte[] RSASSA_PSS = new byte[]{0x06, 0x09, 0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x01, 0x0A};
+
+    private static final byte SEQUENCE = 0x30;
+
+    private static final byte[] VERSION_0 = new byte[]{INTEGER, 0x01, 0x00};
 
     static PrivateKey generate(Path path) throws IOException {
-        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            PEMParser parser = new PEMParser(in);
+        return generate(path, PemReader.read(path));
+    }
+
+    static PrivateKey generate(Object source, List<PemObject> pemObjects) throws IOException {
+        for (PemObject pemObject : pemObjects) {
+            switch (pemObject.getType()) {
+                case "EC PARAMETERS":
+                    continue;
+                case "EC PRIVATE KEY":
+                    return generateSec1(source, pemObject.getContent());
+                case "PRIVATE KEY":
+                    return generatePkcs8(source, pemObject.getContent());
+                case "RSA PRIVATE KEY":
+                    return generate(source, "RSA", encode(SEQUENCE, VERSION_0, encode(SEQUENCE, RSA, DER_NULL), encode(OCTET_STRING, pemObject.getContent())));
+                default:
+                    throw new IllegalStateException(String.format("%s contains an artifact that is not a key pair: %s", source, pemObject));
+            }
+        }
+
+        throw new IllegalStateException(String.format("%s does not contain a private key", source));
+    }
+
+    private static byte[] encode(byte tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int octets = length > 0xFFFFFF ? 4 : length > 0xFFFF ? 3 : length > 0xFF ? 2 : 1;
+            out.write(0x80 | octets);
+            for (int i = octets - 1; i >= 0; i--) {
+                out.write(length >> (8 * i));
+            }
+        }
+
+        for (byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static PrivateKey generate(Object source, String algorithm, byte[] pkcs8) throws IOException {
+        try {
+            return KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(String.format("%s contains a private key with an unsupported algorithm: %s", source, algorithm), e);
+        } catch (InvalidKeySpecException e) {
+            throw new IOException(String.format("%s contains an invalid private key", source), e);
+        }
+    }
+
+    private static PrivateKey generatePkcs8(Object source, byte[] content) throws IOException {
+        DerReader privateKeyInfo = new DerReader(source, content).read(SEQUENCE);
+        privateKeyInfo.skip(INTEGER);
+        byte[] algorithm = privateKeyInfo.read(SEQUENCE).readEncoded(OBJECT_IDENTIFIER);
 
-            Object keyPair = parser.readObject();
-            if (!(keyPair instanceof PEMKeyPair)) {
-                throw new IllegalStateException(String.format("%s contains an artifact that is not a key pair: %s", path, keyPair));
+        if (Arrays.equals(RSA, algorithm)) {
+            return generate(source, "RSA", content);
+        } else if (Arrays.equals(EC, algorithm)) {
+            return generate(source, "EC", content);
+        } else if (Arrays.equals(RSASSA_PSS, algorithm)) {
+            return generate(source, "RSASSA-PSS", content);
+        } else if (Arrays.equals(DSA, algorithm)) {
+            return generate(source, "DSA", content);
+        } else if (Arrays.equals(ED25519, algorithm)) {
+            return generate(source, "Ed25519", content);
+        } else if (Arrays.equals(ED448, algorithm)) {
+            return generate(source, "Ed448", content);
+        }
+
+        throw new IllegalStateException(String.format("%s contains a private key with an unsupported algorithm", source));
+    }
+
+    private static PrivateKey generateSec1(Object source, byte[] content) throws IOException {
+        DerReader ecPrivateKey = new DerReader(source, content).read(SEQUENCE);
+        ecPrivateKey.skip(INTEGER);
+        ecPrivateKey.skip(OCTET_STRING);
+
+        if (!ecPrivateKey.hasRemaining() || ecPrivateKey.peek() != CONTEXT_0) {
+            throw new IllegalStateException(String.format("%s contains an EC private key without curve parameters", source));
+        }
+
+        byte[] parameters = ecPrivateKey.read(CONTEXT_0).readEncoded(OBJECT_IDENTIFIER);
+        return generate(source, "EC", encode(SEQUENCE, VERSION_0, encode(SEQUENCE, EC, parameters), encode(OCTET_STRING, content)));
+    }
+
+    private static final class DerReader {
+
+        private final byte[] content;
+
+        private final int limit;
+
+        private final Object source;
+
+        private int position;
+
+        private DerReader(Object source, byte[] content) {
+            this(source, content, 0, content.length);
+        }
+
+        private DerReader(Object source, byte[] content, int position, int limit) {
+            this.source = source;
+            this.content = content;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        private boolean hasRemaining() {
+            return this.position < this.limit;
+        }
+
+        private byte peek() {
+            return this.content[this.position];
+        }
+
+        private DerReader read(byte tag) throws IOException {
+            int start = readHeader(tag);
+            return new DerReader(this.source, this.content, start, this.position);
+        }
+
+        private byte[] readEncoded(byte tag) throws IOException {
+            int start = this.position;
+            readHeader(tag);
+            return Arrays.copyOfRange(this.content, start, this.position);
+        }
+
+        private int readHeader(byte tag) throws IOException {
+            if (!hasRemaining() || this.content[this.position] != tag) {
+                throw new IOException(String.format("%s contains a malformed private key", this.source));
             }
+            this.position++;
 
-            PrivateKeyInfo privateKeyInfo = ((PEMKeyPair) keyPair).getPrivateKeyInfo();
-            if (privateKeyInfo == null) {
-                throw new IllegalStateException(String.format("%s does not contain a private key", path));
+            if (!hasRemaining()) {
+                throw new IOException(String.format("%s contains a malformed private key", this.source));
             }
 
-            return CONVERTER.getPrivateKey(privateKeyInfo);
+            int length = this.content[this.position++] & 0xFF;
+            if ((length & 0x80) != 0) {
+                int octets = length & 0x7F;
+                if (octets == 0 || octets > 4 || this.position + octets > this.limit) {
+                    throw new IOException(String.format("%s contains a malformed private key", this.source));
+                }
+
+                length = 0;
+                for (int i = 0; i < octets; i++) {
+                    length = (length << 8) | (this.content[this.position++] & 0xFF);
+                }
+            }
+
+            int start = this.position;
+            if (length < 0 || start + length > this.limit) {
+                throw new IOException(String.format("%s contains a malformed private key", this.source));
+            }
+
+            this.position = start + length;
+            return start;
+        }
+
+        private void skip(byte tag) throws IOException {
+            readHeader(tag);
         }
+
     }
 
 }
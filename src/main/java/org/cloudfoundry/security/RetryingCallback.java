@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wraps a callback so that a failed invocation is retried on the {@link Scheduler} with exponential backoff, up to a bounded number of attempts.  A new invocation cancels any pending retry
+ * and starts counting attempts again.
+ */
+final class RetryingCallback implements Runnable {
+
+    static final String ATTEMPTS = "org.cloudfoundry.security.reload.retry.attempts";
+
+    static final String DELAY = "org.cloudfoundry.security.reload.retry.delay";
+
+    private static final int DEFAULT_ATTEMPTS = 6;
+
+    private static final int DEFAULT_DELAY = 1_000;
+
+    private static final long MAXIMUM_DELAY = 60_000;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final int attempts;
+
+    private final Runnable callback;
+
+    private final long delay;
+
+    private int attempt;
+
+    private ScheduledFuture<?> retry;
+
+    RetryingCallback(Runnable callback) {
+        this(callback, Math.max(0, SystemProperties.getInteger(ATTEMPTS, DEFAULT_ATTEMPTS)), Math.max(1, SystemProperties.getInteger(DELAY, DEFAULT_DELAY)));
+    }
+
+    RetryingCallback(Runnable callback, int attempts, long delay) {
+        this.attempts = attempts;
+        this.callback = callback;
+        this.delay = delay;
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (this.retry != null) {
+                this.retry.cancel(false);
+                this.retry = null;
+            }
+
+            this.attempt = 0;
+        }
+
+        invoke();
+    }
+
+    private void invoke() {
+        try {
+            this.callback.run();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (this.attempt >= this.attempts) {
+                    this.logger.log(Level.WARNING, String.format("Unable to process change after %d attempts, retaining current state", this.attempt + 1), e);
+                    return;
+                }
+
+                long delay = Math.min(this.delay << Math.min(this.attempt, 30), MAXIMUM_DELAY);
+                this.attempt++;
+
+                this.logger.log(Level.WARNING, String.format("Unable to process change, retrying in %d ms", delay), e);
+                this.retry = Scheduler.schedule(new Retry(), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private final class Retry implements Runnable {
+
+        @Override
+        public void run() {
+            invoke();
+        }
+
+    }
+
+}
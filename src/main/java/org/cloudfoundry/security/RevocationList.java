@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.cert.CRL;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * The revoked certificates of the CRLs in a watched file, or in the {@code *.crl} and {@code *.pem} files of a watched directory.  Revocations are indexed by the issuer's key identifier and
+ * by the issuer's name, each with the serial number, so that a chain is checked with a constant number of lookups per certificate.  The signatures of the CRLs are not verified: they can only
+ * withdraw trust, never grant it.
+ */
+final class RevocationList {
+
+    static final String LOCATION = "org.cloudfoundry.security.trustmanager.crls";
+
+    private static final String EXTENSIONS = "*.{crl,pem}";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Path source;
+
+    private volatile Generation generation;
+
+    RevocationList(Path source) {
+        this.source = source;
+
+        FileWatcher.watch(new RetryingCallback(new FileWatcherCallback()), this.source);
+
+        reload();
+    }
+
+    /**
+     * Throws a {@link CertificateException} if any certificate in {@code chain} has been revoked.
+     */
+    void check(X509Certificate[] chain) throws CertificateException {
+        Set<Revocation> revocations = this.generation.revocations;
+        if (revocations.isEmpty()) {
+            return;
+        }
+
+        for (X509Certificate certificate : chain) {
+            BigInteger serialNumber = certificate.getSerialNumber();
+            KeyIdentifier keyIdentifier = KeyIdentifier.ofAuthority(certificate);
+
+            if ((keyIdentifier != null && revocations.contains(new Revocation(keyIdentifier, serialNumber))) ||
+                revocations.contains(new Revocation(certificate.getIssuerX500Principal(), serialNumber))) {
+                throw new CertificateException(String.format("%s has been revoked", certificate.getSubjectX500Principal()));
+            }
+        }
+    }
+
+    long getGeneration() {
+        return this.generation.number;
+    }
+
+    /**
+     * Reloads the revocations if the content of the CRL files has changed since the active generation was built.
+     *
+     * @return {@code true} if a new generation was activated
+     */
+    synchronized boolean reload() {
+        try {
+            List<Path> paths = getPaths();
+
+            List<byte[]> contents = new ArrayList<>();
+            List<Fingerprint> fingerprints = new ArrayList<>();
+            for (Path path : paths) {
+                byte[] content = Files.readAllBytes(path);
+                contents.add(content);
+                fingerprints.add(Fingerprint.of(content));
+            }
+
+            Generation current = this.generation;
+            if (current != null && current.fingerprints.equals(fingerprints)) {
+                this.logger.fine(String.format("Content of %s unchanged", this.source));
+                return false;
+            }
+
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            Set<Revocation> revocations = new HashSet<>();
+
+            for (byte[] content : contents) {
+                for (CRL crl : certificateFactory.generateCRLs(new ByteArrayInputStream(content))) {
+                    collect(revocations, (X509CRL) crl);
+                }
+            }
+
+            this.generation = new Generation(current != null ? current.number + 1 : 0, fingerprints, revocations);
+            this.logger.info(String.format("%s revocation list for %s: %d revoked certificates", current == null ? "Initialized" : "Updated", this.source, revocations.size()));
+
+            return true;
+        } catch (NoSuchFileException e) {
+            if (this.generation == null) {
+                throw new UndeclaredThrowableException(e);
+            }
+
+            this.logger.fine(String.format("%s does not exist, retaining current revocation list", e.getFile()));
+            return false;
+        } catch (CertificateException | CRLException | IOException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private static void collect(Set<Revocation> revocations, X509CRL crl) {
+        Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+        if (entries == null) {
+            return;
+        }
+
+        KeyIdentifier keyIdentifier = KeyIdentifier.ofAuthority(crl);
+
+        for (X509CRLEntry entry : entries) {
+            if (entry.getCertificateIssuer() != null) {
+                revocations.add(new Revocation(entry.getCertificateIssuer(), entry.getSerialNumber()));
+                continue;
+            }
+
+            revocations.add(new Revocation(crl.getIssuerX500Principal(), entry.getSerialNumber()));
+            if (keyIdentifier != null) {
+                revocations.add(new Revocation(keyIdentifier, entry.getSerialNumber()));
+            }
+        }
+    }
+
+    private List<Path> getPaths() throws IOException {
+        if (!Files.isDirectory(this.source)) {
+            return Collections.singletonList(this.source);
+        }
+
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(this.source, EXTENSIONS)) {
+            for (Path candidate : directoryStream) {
+                if (Files.isRegularFile(candidate)) {
+                    paths.add(candidate);
+                }
+            }
+        }
+        Collections.sort(paths);
+
+        return paths;
+    }
+
+    private static final class Generation {
+
+        private final List<Fingerprint> fingerprints;
+
+        private final long number;
+
+        private final Set<Revocation> revocations;
+
+        private Generation(long number, List<Fingerprint> fingerprints, Set<Revocation> revocations) {
+            this.number = number;
+            this.fingerprints = fingerprints;
+            this.revocations = revocations;
+        }
+
+    }
+
+    private static final class Revocation {
+
+        private final int hashCode;
+
+        private final Object issuer;
+
+        private final BigInteger serialNumber;
+
+        private Revocation(Object issuer, BigInteger serialNumber) {
+            this.issuer = issuer;
+            this.serialNumber = serialNumber;
+            this.hashCode = 31 * issuer.hashCode() + serialNumber.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Revocation that = (Revocation) o;
+            return this.hashCode == that.hashCode && this.serialNumber.equals(that.serialNumber) && this.issuer.equals(that.issuer);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+    private class FileWatcherCallback implements Runnable {
+
+        @Override
+        public void run() {
+            reload();
+        }
+
+    }
+
+}
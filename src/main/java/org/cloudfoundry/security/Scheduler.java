@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide, single-threaded scheduler for background work such as reloads.  Because there is only one thread, scheduled tasks never run concurrently with one another.  The thread is
+ * created by {@link Threads}.
+ */
+final class Scheduler {
+
+    private static final ScheduledExecutorService EXECUTOR;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, Threads.newThreadFactory("container-security-scheduler"));
+        executor.setRemoveOnCancelPolicy(true);
+        EXECUTOR = executor;
+    }
+
+    private Scheduler() {
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return EXECUTOR.schedule(task, delay, unit);
+    }
+
+    static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return EXECUTOR.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.UnrecoverableKeyException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A process-wide cache of the system managers built from the default key and trust stores.  Frameworks initialize a factory with a {@code null} key store for every {@code SSLContext} they
+ * create, and without the cache each of them would read and parse the default trust store again and hold its own copy of it.  Managers are keyed on the kind of manager, the algorithm and the
+ * location of the default store, which for trust managers is given by {@code java.home} and the {@code javax.net.ssl.trustStore}, {@code trustStoreProvider} and {@code trustStoreType}
+ * system properties.  There is a single entry for each key, which is replaced when the modification time or size of the trust store file changes, so that an edited trust store is read again
+ * by the next initialization.
+ */
+final class SharedSystemManagers {
+
+    private static final Map<Key, Entry> ENTRIES = new HashMap<>();
+
+    private static final Logger LOGGER = Logger.getLogger(SharedSystemManagers.class.getName());
+
+    private static final String[] TRUST_STORE_PROPERTIES = new String[]{
+        "java.home", "javax.net.ssl.trustStore", "javax.net.ssl.trustStoreProvider", "javax.net.ssl.trustStoreType"
+    };
+
+    private SharedSystemManagers() {
+    }
+
+    /**
+     * Returns the key managers of {@code algorithm} built from an empty key store, building them on first use.
+     */
+    static KeyManager[] getKeyManagers(String algorithm) throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
+        Key key = new Key("KeyManager", algorithm, new String[0]);
+
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+
+            if (entry == null) {
+                KeyManagerFactory keyManagerFactory = getKeyManagerFactory(algorithm);
+                keyManagerFactory.init(null, null);
+
+                LOGGER.fine(String.format("Caching %s System Key Managers", algorithm));
+                entry = new Entry(Arrays.asList(new String[0]), keyManagerFactory.getKeyManagers());
+                ENTRIES.put(key, entry);
+            }
+
+            return (KeyManager[]) entry.managers;
+        }
+    }
+
+    /**
+     * Returns the trust managers of {@code algorithm} built from the default trust store, building them on first use and again whenever the trust store file has changed.
+     */
+    static TrustManager[] getTrustManagers(String algorithm) throws KeyStoreException {
+        String[] source = new String[TRUST_STORE_PROPERTIES.length];
+        for (int i = 0; i < source.length; i++) {
+            source[i] = System.getProperty(TRUST_STORE_PROPERTIES[i]);
+        }
+
+        Key key = new Key("TrustManager", algorithm, source);
+        List<String> signature = getSignature(getTrustStore());
+
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+
+            if (entry == null || !entry.signature.equals(signature)) {
+                TrustManagerFactory trustManagerFactory = getTrustManagerFactory(algorithm);
+                trustManagerFactory.init((KeyStore) null);
+
+                LOGGER.fine(String.format("Caching %s System Trust Managers", algorithm));
+                entry = new Entry(signature, trustManagerFactory.getTrustManagers());
+                ENTRIES.put(key, entry);
+            }
+
+            return (TrustManager[]) entry.managers;
+        }
+    }
+
+    private static KeyManagerFactory getKeyManagerFactory(String algorithm) {
+        try {
+            return KeyManagerFactory.getInstance(algorithm, "SunJSSE");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    /**
+     * Returns the modification time and size of {@code file}, or an empty signature if there is no file or its attributes cannot be read.
+     */
+    private static List<String> getSignature(Path file) {
+        if (file != null) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return Arrays.asList(attributes.lastModifiedTime().toString(), String.valueOf(attributes.size()));
+            } catch (IOException e) {
+                LOGGER.fine(String.format("Unable to read attributes of %s: %s", file, e.getMessage()));
+            }
+        }
+
+        return Arrays.asList(new String[0]);
+    }
+
+    private static TrustManagerFactory getTrustManagerFactory(String algorithm) {
+        try {
+            return TrustManagerFactory.getInstance(algorithm, "SunJSSE");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    /**
+     * Returns the file that SunJSSE reads the default trust store from, or {@code null} if it does not read one.
+     */
+    private static Path getTrustStore() {
+        String trustStore = System.getProperty("javax.net.ssl.trustStore");
+        if (trustStore != null) {
+            return trustStore.isEmpty() || "NONE".equals(trustStore) ? null : Paths.get(trustStore);
+        }
+
+        Path security = Paths.get(System.getProperty("java.home"), "lib", "security");
+        Path jssecacerts = security.resolve("jssecacerts");
+        return Files.isRegularFile(jssecacerts) ? jssecacerts : security.resolve("cacerts");
+    }
+
+    private static final class Entry {
+
+        private final Object[] managers;
+
+        private final List<String> signature;
+
+        private Entry(List<String> signature, Object[] managers) {
+            this.signature = signature;
+            this.managers = managers;
+        }
+
+    }
+
+    private static final class Key {
+
+        private final String algorithm;
+
+        private final String kind;
+
+        private final List<String> source;
+
+        private Key(String kind, String algorithm, String[] source) {
+            this.kind = kind;
+            this.algorithm = algorithm;
+            this.source = Arrays.asList(source);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return this.kind.equals(key.kind) && this.algorithm.equals(key.algorithm) && this.source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.kind.hashCode() + this.algorithm.hashCode()) + this.source.hashCode();
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * An index from the SAN DNS names of the server certificates of a key manager, including wildcard names, and their key algorithm to their alias.  It allows the identity for the SNI server name
+ * requested in a handshake to be chosen with a hash lookup rather than a scan of every alias.
+ */
+final class SniIndex {
+
+    private static final int DNS_NAME = 2;
+
+    private static final String[] KEY_TYPES = new String[]{"DSA", "EC", "EdDSA", "RSA", "RSASSA-PSS"};
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Map<String, Map<String, String>> hostNames = new HashMap<>();
+
+    private final Map<String, Map<String, String>> wildcards = new HashMap<>();
+
+    SniIndex(X509ExtendedKeyManager keyManager) {
+        this(keyManager, "");
+    }
+
+    /**
+     * Creates an index whose aliases are prefixed with {@code prefix}.
+     */
+    SniIndex(X509ExtendedKeyManager keyManager, String prefix) {
+        for (String keyType : KEY_TYPES) {
+            String[] aliases = keyManager.getServerAliases(keyType, null);
+            if (aliases == null) {
+                continue;
+            }
+
+            for (String alias : aliases) {
+                X509Certificate[] chain = keyManager.getCertificateChain(alias);
+                if (chain == null || chain.length == 0) {
+                    continue;
+                }
+
+                index(keyType, prefix + alias, chain[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns the alias for the SNI host name requested in {@code session} and {@code keyType}, or {@code null} if there is no requested host name or no matching identity.
+     */
+    String getAlias(String keyType, SSLSession session) {
+        if (keyType == null || !(session instanceof ExtendedSSLSession)) {
+            return null;
+        }
+
+        String hostName = getHostName(((ExtendedSSLSession) session).getRequestedServerNames());
+        if (hostName == null) {
+            return null;
+        }
+
+        String keyAlgorithm = getKeyAlgorithm(keyType);
+
+        Map<String, String> candidates = this.hostNames.get(keyAlgorithm);
+        String alias = candidates != null ? candidates.get(hostName) : null;
+        if (alias != null) {
+            return alias;
+        }
+
+        int dot = hostName.indexOf('.');
+        candidates = this.wildcards.get(keyAlgorithm);
+        return candidates != null && dot != -1 ? candidates.get(hostName.substring(dot + 1)) : null;
+    }
+
+    private static String getHostName(List<SNIServerName> serverNames) {
+        for (SNIServerName serverName : serverNames) {
+            if (serverName instanceof SNIHostName) {
+                return ((SNIHostName) serverName).getAsciiName().toLowerCase(Locale.ROOT);
+            }
+        }
+
+        return null;
+    }
+
+    private static String getKeyAlgorithm(String keyType) {
+        int separator = keyType.indexOf('_');
+        return separator == -1 ? keyType : keyType.substring(0, separator);
+    }
+
+    private static void put(Map<String, Map<String, String>> index, String keyType, String name, String alias) {
+        Map<String, String> candidates = index.get(keyType);
+        if (candidates == null) {
+            candidates = new HashMap<>();
+            index.put(keyType, candidates);
+        }
+
+        if (!candidates.containsKey(name)) {
+            candidates.put(name, alias);
+        }
+    }
+
+    private void index(String keyType, String alias, X509Certificate certificate) {
+        Collection<List<?>> subjectAlternativeNames;
+        try {
+            subjectAlternativeNames = certificate.getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            this.logger.warning(String.format("Unable to read subject alternative names of %s", alias));
+            return;
+        }
+
+        if (subjectAlternativeNames == null) {
+            return;
+        }
+
+        for (List<?> subjectAlternativeName : subjectAlternativeNames) {
+            if (!Integer.valueOf(DNS_NAME).equals(subjectAlternativeName.get(0))) {
+                continue;
+            }
+
+            String name = ((String) subjectAlternativeName.get(1)).toLowerCase(Locale.ROOT);
+            if (name.startsWith("*.")) {
+                put(this.wildcards, keyType, name.substring(2), alias);
+            } else {
+                put(this.hostNames, keyType, name, alias);
+            }
+        }
+    }
+
+}
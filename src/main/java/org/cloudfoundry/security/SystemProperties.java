@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import java.util.logging.Logger;
+
+final class SystemProperties {
+
+    private static final Logger LOGGER = Logger.getLogger(SystemProperties.class.getName());
+
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getValue(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    static int getInteger(String key, int defaultValue) {
+        String value = getValue(key);
+
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            LOGGER.warning(String.format("Ignoring invalid value for %s: %s", key, value));
+            return defaultValue;
+        }
+    }
+
+    static String getString(String key, String defaultValue) {
+        String value = getValue(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static String getValue(String key) {
+        String value = System.getProperty(key);
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+}
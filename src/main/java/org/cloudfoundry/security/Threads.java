@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the background threads used by the provider.  On Java 8 these are daemon platform threads.  A multi-release variant of this class creates virtual threads on Java 21 and later.
+ */
+final class Threads {
+
+    private Threads() {
+    }
+
+    static Thread newThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.setName(name);
+
+        return thread;
+    }
+
+    static ThreadFactory newThreadFactory(String prefix) {
+        return new NamingThreadFactory(prefix);
+    }
+
+    private static final class NamingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private final String prefix;
+
+        private NamingThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return Threads.newThread(String.format("%s-%d", this.prefix, this.counter.getAndIncrement()), r);
+        }
+
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single trust manager over the union of the anchors of a system trust manager and a watched container trust manager, deduplicated by fingerprint.  The union is rebuilt on the
+ * {@link Scheduler} whenever the container trust manager activates a new generation, and checks are made against the previous union until the new one is ready.  If the rebuild fails, the
+ * previous union is kept.  A change to the system side results in a new instance, as the system trust manager itself is replaced.
+ */
+final class UnifiedX509ExtendedTrustManager extends X509ExtendedTrustManager implements GenerationalTrustManager {
+
+    static final String ENABLED = "org.cloudfoundry.security.trustmanager.unified.enabled";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final FileWatchingX509ExtendedTrustManager containerTrustManager;
+
+    private final Runnable listener = new ReloadListener();
+
+    private final X509ExtendedTrustManager systemTrustManager;
+
+    private final TrustManagerFactory trustManagerFactory;
+
+    private volatile Generation generation;
+
+    UnifiedX509ExtendedTrustManager(X509ExtendedTrustManager systemTrustManager, FileWatchingX509ExtendedTrustManager containerTrustManager, TrustManagerFactory trustManagerFactory) {
+        this.containerTrustManager = containerTrustManager;
+        this.systemTrustManager = systemTrustManager;
+        this.trustManagerFactory = trustManagerFactory;
+
+        containerTrustManager.addListener(this.listener);
+
+        try {
+            this.generation = rebuild(containerTrustManager.getGeneration());
+        } catch (CertificateException | IOException | KeyStoreException | NoSuchAlgorithmException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s, Socket socket) throws CertificateException {
+        getTrustManager().checkClientTrusted(x509Certificates, s, socket);
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s, SSLEngine sslEngine) throws CertificateException {
+        getTrustManager().checkClientTrusted(x509Certificates, s, sslEngine);
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+        getTrustManager().checkClientTrusted(x509Certificates, s);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s, SSLEngine sslEngine) throws CertificateException {
+        getTrustManager().checkServerTrusted(x509Certificates, s, sslEngine);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s, Socket socket) throws CertificateException {
+        getTrustManager().checkServerTrusted(x509Certificates, s, socket);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+        getTrustManager().checkServerTrusted(x509Certificates, s);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return getTrustManager().getAcceptedIssuers();
+    }
+
+    /**
+     * Returns the generation of the container trust manager that the active union was built from.
+     */
+    @Override
+    public long getGeneration() {
+        return this.generation.number;
+    }
+
+    FileWatchingX509ExtendedTrustManager getContainerTrustManager() {
+        return this.containerTrustManager;
+    }
+
+    X509ExtendedTrustManager getSystemTrustManager() {
+        return this.systemTrustManager;
+    }
+
+    private static void collect(Map<Fingerprint, X509Certificate> anchors, X509Certificate[] candidates) throws CertificateException {
+        if (candidates == null) {
+            return;
+        }
+
+        for (X509Certificate candidate : candidates) {
+            Fingerprint fingerprint = Fingerprint.of(candidate.getEncoded());
+            if (!anchors.containsKey(fingerprint)) {
+                anchors.put(fingerprint, candidate);
+            }
+        }
+    }
+
+    private X509ExtendedTrustManager getTrustManager() {
+        return this.generation.trustManager;
+    }
+
+    private synchronized Generation rebuild(long number) throws CertificateException, IOException, KeyStoreException, NoSuchAlgorithmException {
+        Map<Fingerprint, X509Certificate> anchors = new LinkedHashMap<>();
+        collect(anchors, this.systemTrustManager.getAcceptedIssuers());
+        collect(anchors, this.containerTrustManager.getAcceptedIssuers());
+
+        KeyStore keyStore = KeyStoreEntryCollector.identity();
+        for (X509Certificate anchor : anchors.values()) {
+            KeyStoreEntryCollector.accumulate(keyStore, anchor);
+        }
+
+        this.trustManagerFactory.init(keyStore);
+
+        for (TrustManager trustManager : this.trustManagerFactory.getTrustManagers()) {
+            if (trustManager instanceof X509ExtendedTrustManager) {
+                this.logger.info(String.format("Unified TrustManager with %d anchors", anchors.size()));
+                return new Generation(number, (X509ExtendedTrustManager) trustManager);
+            }
+        }
+
+        throw new IllegalStateException("No X509ExtendedTrustManager available");
+    }
+
+    /**
+     * Rebuilds the union if the container trust manager has moved on from the active generation, keeping the active generation if the rebuild fails.
+     */
+    private synchronized void update() {
+        long number = this.containerTrustManager.getGeneration();
+        Generation generation = this.generation;
+
+        if (generation.number == number) {
+            return;
+        }
+
+        try {
+            this.generation = rebuild(number);
+        } catch (CertificateException | IOException | KeyStoreException | NoSuchAlgorithmException | RuntimeException e) {
+            this.logger.log(Level.WARNING, String.format("Unable to rebuild unified TrustManager, retaining generation %d", generation.number), e);
+        }
+    }
+
+    private static final class Generation {
+
+        private final long number;
+
+        private final X509ExtendedTrustManager trustManager;
+
+        private Generation(long number, X509ExtendedTrustManager trustManager) {
+            this.number = number;
+            this.trustManager = trustManager;
+        }
+
+    }
+
+    private final class ReloadListener implements Runnable {
+
+        private final Runnable update = new Runnable() {
+
+            @Override
+            public void run() {
+                update();
+            }
+
+        };
+
+        @Override
+        public void run() {
+            Scheduler.schedule(this.update, 0, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+}
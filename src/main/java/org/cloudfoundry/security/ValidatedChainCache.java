@@ -0,0 +1,494 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLSession;
+import java.lang.ref.WeakReference;
+import java.security.AlgorithmConstraints;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of certificate chains that have passed validation, keyed on the fingerprint of the chain, the authentication type, the direction of the check and, for checks made during a
+ * handshake, the state of the handshake that the algorithm constraints of the check depend on.  Alongside the chains, the cache holds the endpoint identification verdicts that have passed,
+ * keyed on the fingerprint of the leaf certificate, the peer host and the identification algorithm.  Entries live for at most {@value #TTL} milliseconds and never beyond the earliest
+ * {@code notAfter} of the certificates they cover, and the least recently used entry is evicted when the cache is full.  Chains that have failed validation are held separately for at most
+ * {@value #REJECTION_TTL} milliseconds, so that repeated attempts with an untrusted chain are rejected without validating it again.  The cache belongs to a trust generation and is flushed as
+ * soon as a check is made against a newer one.  Its hit, miss and eviction counts are logged at {@code INFO} every {@value #REPORT_INTERVAL} milliseconds while it is in use.
+ */
+final class ValidatedChainCache {
+
+    static final String ENABLED = "org.cloudfoundry.security.trustmanager.cache.enabled";
+
+    static final String REJECTION_TTL = "org.cloudfoundry.security.trustmanager.cache.rejection.ttl";
+
+    static final String REPORT_INTERVAL = "org.cloudfoundry.security.trustmanager.cache.report.interval";
+
+    static final String SIZE = "org.cloudfoundry.security.trustmanager.cache.size";
+
+    static final String TTL = "org.cloudfoundry.security.trustmanager.cache.ttl";
+
+    private static final int DEFAULT_REJECTION_TTL = 10_000;
+
+    private static final int DEFAULT_REPORT_INTERVAL = 300_000;
+
+    private static final int DEFAULT_SIZE = 1_024;
+
+    private static final int DEFAULT_TTL = 300_000;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Entries<Key> chains;
+
+    private final Entries<IdentityKey> identities;
+
+    private final long rejectionTtl;
+
+    private final Entries<Key> rejections;
+
+    private final long ttl;
+
+    private volatile long generation;
+
+    ValidatedChainCache() {
+        this(Math.max(1, SystemProperties.getInteger(SIZE, DEFAULT_SIZE)), Math.max(0, SystemProperties.getInteger(TTL, DEFAULT_TTL)),
+            Math.max(0, SystemProperties.getInteger(REJECTION_TTL, DEFAULT_REJECTION_TTL)));
+
+        int reportInterval = SystemProperties.getInteger(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL);
+        if (reportInterval > 0) {
+            Report report = new Report(this);
+            report.future = Scheduler.scheduleWithFixedDelay(report, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    ValidatedChainCache(int maximumSize, long ttl, long rejectionTtl) {
+        this.chains = new Entries<>(maximumSize);
+        this.identities = new Entries<>(maximumSize);
+        this.rejections = new Entries<>(maximumSize);
+        this.rejectionTtl = rejectionTtl;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ValidatedChainCache{chains=%s, identities=%s, rejections=%s}", this.chains, this.identities, this.rejections);
+    }
+
+    /**
+     * Returns whether the chain identified by {@code key} has passed validation in {@code generation} and has not yet expired.
+     */
+    boolean contains(Key key, long generation) {
+        return this.chains.contains(key, isCurrent(generation));
+    }
+
+    /**
+     * Returns whether the endpoint identification identified by {@code key} has passed in {@code generation} and has not yet expired.
+     */
+    boolean containsIdentity(IdentityKey key, long generation) {
+        return this.identities.contains(key, isCurrent(generation));
+    }
+
+    /**
+     * Returns whether the chain identified by {@code key} has failed validation in {@code generation} within the last {@value #REJECTION_TTL} milliseconds.
+     */
+    boolean containsRejection(Key key, long generation) {
+        return this.rejections.contains(key, isCurrent(generation));
+    }
+
+    /**
+     * Returns the share of chain lookups that were served from the cache, or {@code 0} if there have been none.
+     */
+    double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    long getEvictions() {
+        return this.chains.evictions.sum();
+    }
+
+    long getHits() {
+        return this.chains.hits.sum();
+    }
+
+    long getIdentityHits() {
+        return this.identities.hits.sum();
+    }
+
+    /**
+     * Returns the key for the endpoint identification of {@code leaf} in {@code sslSession}, or {@code null} if it cannot be cached.  For checks of server certificates the key includes the
+     * requested SNI host name, as it takes part in the identification.
+     */
+    IdentityKey getIdentityKey(X509Certificate leaf, SSLSession sslSession, String algorithm, boolean server) {
+        if (leaf == null || sslSession == null || sslSession.getPeerHost() == null) {
+            return null;
+        }
+
+        try {
+            return new IdentityKey(Fingerprint.of(leaf.getEncoded()), sslSession.getPeerHost(), server ? getHostName(sslSession) : null, algorithm, server);
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key for {@code chain} checked outside of a handshake, or {@code null} if the chain cannot be cached.
+     */
+    Key getKey(X509Certificate[] chain, String authType, boolean server) {
+        return getKey(chain, authType, server, null, null);
+    }
+
+    /**
+     * Returns the key for {@code chain} checked during the handshake of {@code sslSession}, or {@code null} if the chain cannot be cached.  The key includes the negotiated protocol, the local
+     * supported signature algorithms and the {@code algorithmConstraints} of the socket or engine, as the algorithm constraints applied to the chain are derived from them.
+     */
+    Key getKey(X509Certificate[] chain, String authType, boolean server, SSLSession sslSession, AlgorithmConstraints algorithmConstraints) {
+        if (chain == null || chain.length == 0) {
+            return null;
+        }
+
+        String protocol = sslSession != null ? sslSession.getProtocol() : null;
+        String[] signatureAlgorithms = sslSession instanceof ExtendedSSLSession ? ((ExtendedSSLSession) sslSession).getLocalSupportedSignatureAlgorithms() : null;
+
+        try {
+            return new Key(Fingerprint.of(chain), authType, server, protocol, signatureAlgorithms, algorithmConstraints);
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+    }
+
+    long getMisses() {
+        return this.chains.misses.sum();
+    }
+
+    long getRejectionHits() {
+        return this.rejections.hits.sum();
+    }
+
+    /**
+     * Records that the chain identified by {@code key} has passed validation in {@code generation}.  Results from a generation other than the current one are discarded.
+     */
+    void put(Key key, X509Certificate[] chain, long generation) {
+        if (!isCurrent(generation)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long expiry = now + this.ttl;
+        for (X509Certificate certificate : chain) {
+            expiry = Math.min(expiry, certificate.getNotAfter().getTime());
+        }
+
+        this.chains.put(key, expiry, now);
+    }
+
+    /**
+     * Records that the endpoint identification identified by {@code key} has passed in {@code generation}.  Results from a generation other than the current one are discarded.
+     */
+    void putIdentity(IdentityKey key, X509Certificate leaf, long generation) {
+        if (!isCurrent(generation)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        this.identities.put(key, Math.min(now + this.ttl, leaf.getNotAfter().getTime()), now);
+    }
+
+    /**
+     * Records that the chain identified by {@code key} has failed validation in {@code generation}.  Results from a generation other than the current one are discarded.
+     */
+    void putRejection(Key key, long generation) {
+        if (!isCurrent(generation)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        this.rejections.put(key, now + this.rejectionTtl, now);
+    }
+
+    private static String getHostName(SSLSession sslSession) {
+        if (!(sslSession instanceof ExtendedSSLSession)) {
+            return null;
+        }
+
+        for (SNIServerName serverName : ((ExtendedSSLSession) sslSession).getRequestedServerNames()) {
+            if (serverName instanceof SNIHostName) {
+                return ((SNIHostName) serverName).getAsciiName();
+            }
+        }
+
+        return null;
+    }
+
+    private synchronized void flush(long generation) {
+        if (generation <= this.generation) {
+            return;
+        }
+
+        this.logger.fine(String.format("Flushing %s for trust generation %d", this, generation));
+        this.chains.clear();
+        this.identities.clear();
+        this.rejections.clear();
+        this.generation = generation;
+    }
+
+    /**
+     * Flushes the cache if {@code generation} is newer than the cache's, and returns whether {@code generation} is the cache's generation.
+     */
+    private boolean isCurrent(long generation) {
+        if (generation != this.generation) {
+            flush(generation);
+        }
+
+        return generation == this.generation;
+    }
+
+    static final class IdentityKey {
+
+        private final String algorithm;
+
+        private final Fingerprint fingerprint;
+
+        private final int hashCode;
+
+        private final String hostName;
+
+        private final String peerHost;
+
+        private final boolean server;
+
+        private IdentityKey(Fingerprint fingerprint, String peerHost, String hostName, String algorithm, boolean server) {
+            this.fingerprint = fingerprint;
+            this.peerHost = peerHost.toLowerCase(Locale.ROOT);
+            this.hostName = hostName != null ? hostName.toLowerCase(Locale.ROOT) : null;
+            this.algorithm = algorithm;
+            this.server = server;
+            this.hashCode = Objects.hash(fingerprint, this.peerHost, this.hostName, algorithm, server);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            IdentityKey that = (IdentityKey) o;
+            return this.hashCode == that.hashCode &&
+                this.server == that.server &&
+                this.fingerprint.equals(that.fingerprint) &&
+                this.peerHost.equals(that.peerHost) &&
+                Objects.equals(this.hostName, that.hostName) &&
+                Objects.equals(this.algorithm, that.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+    static final class Key {
+
+        private final AlgorithmConstraints algorithmConstraints;
+
+        private final String authType;
+
+        private final Fingerprint fingerprint;
+
+        private final int hashCode;
+
+        private final String protocol;
+
+        private final boolean server;
+
+        private final String[] signatureAlgorithms;
+
+        private Key(Fingerprint fingerprint, String authType, boolean server, String protocol, String[] signatureAlgorithms, AlgorithmConstraints algorithmConstraints) {
+            this.fingerprint = fingerprint;
+            this.authType = authType;
+            this.server = server;
+            this.protocol = protocol;
+            this.signatureAlgorithms = signatureAlgorithms;
+            this.algorithmConstraints = algorithmConstraints;
+            this.hashCode = 31 * (31 * (31 * (31 * fingerprint.hashCode() + (authType != null ? authType.hashCode() : 0)) + Boolean.hashCode(server)) + Objects.hashCode(protocol))
+                + Arrays.hashCode(signatureAlgorithms);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return this.hashCode == key.hashCode &&
+                this.server == key.server &&
+                this.fingerprint.equals(key.fingerprint) &&
+                (this.authType != null ? this.authType.equals(key.authType) : key.authType == null) &&
+                Objects.equals(this.protocol, key.protocol) &&
+                Arrays.equals(this.signatureAlgorithms, key.signatureAlgorithms) &&
+                this.algorithmConstraints == key.algorithmConstraints;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+    /**
+     * Entries mapped to their expiry, in access order.  When full, the least recently used entry is evicted.  Expired entries are removed when they are looked up, or evicted as they age.
+     */
+    private static final class Entries<K> {
+
+        private final Map<K, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final LongAdder evictions = new LongAdder();
+
+        private final LongAdder hits = new LongAdder();
+
+        private final int maximumSize;
+
+        private final LongAdder misses = new LongAdder();
+
+        private Entries(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{size=%d, hits=%d, misses=%d, evictions=%d}", size(), this.hits.sum(), this.misses.sum(), this.evictions.sum());
+        }
+
+        private void clear() {
+            synchronized (this.entries) {
+                this.entries.clear();
+            }
+        }
+
+        private boolean contains(K key, boolean current) {
+            if (!current) {
+                this.misses.increment();
+                return false;
+            }
+
+            synchronized (this.entries) {
+                Long expiry = this.entries.get(key);
+
+                if (expiry == null) {
+                    this.misses.increment();
+                    return false;
+                }
+
+                if (expiry <= System.currentTimeMillis()) {
+                    this.entries.remove(key);
+                    this.evictions.increment();
+                    this.misses.increment();
+                    return false;
+                }
+            }
+
+            this.hits.increment();
+            return true;
+        }
+
+        private void put(K key, long expiry, long now) {
+            if (expiry <= now) {
+                return;
+            }
+
+            synchronized (this.entries) {
+                this.entries.put(key, expiry);
+
+                if (this.entries.size() > this.maximumSize) {
+                    Iterator<K> i = this.entries.keySet().iterator();
+                    i.next();
+                    i.remove();
+                    this.evictions.increment();
+                }
+            }
+        }
+
+        private int size() {
+            synchronized (this.entries) {
+                return this.entries.size();
+            }
+        }
+
+    }
+
+    /**
+     * Logs the statistics of a cache whenever it has been used since the last report, and cancels itself once the cache is no longer reachable.
+     */
+    private static final class Report implements Runnable {
+
+        private final WeakReference<ValidatedChainCache> chainCache;
+
+        private volatile ScheduledFuture<?> future;
+
+        private long lookups;
+
+        private Report(ValidatedChainCache chainCache) {
+            this.chainCache = new WeakReference<>(chainCache);
+        }
+
+        @Override
+        public void run() {
+            ValidatedChainCache chainCache = this.chainCache.get();
+
+            if (chainCache == null) {
+                ScheduledFuture<?> future = this.future;
+                if (future != null) {
+                    future.cancel(false);
+                }
+
+                return;
+            }
+
+            long lookups = chainCache.getHits() + chainCache.getMisses();
+            if (lookups != this.lookups) {
+                this.lookups = lookups;
+                chainCache.logger.info(String.format("Validated chain cache hit rate %.1f%%: %s", chainCache.getHitRate() * 100, chainCache));
+            }
+        }
+
+    }
+
+}
@@ -16,41 +16,168 @@
 
 package org.cloudfoundry.security;
 
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
-import org.bouncycastle.openssl.PEMParser;
-
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.file.Path;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 final class X509CertificateFactory {
 
-    private static final JcaX509CertificateConverter CONVERTER = new JcaX509CertificateConverter();
+    static final String PARALLELISM = "org.cloudfoundry.security.certificates.parallelism";
+
+    static final String PARALLEL_THRESHOLD = "org.cloudfoundry.security.certificates.parallel.threshold";
+
+    /**
+     * {@link CertificateFactory} is not specified to be thread-safe, so each thread, including each decoding worker, uses its own.
+     */
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = new ThreadLocal<CertificateFactory>() {
+
+        @Override
+        protected CertificateFactory initialValue() {
+            return getCertificateFactory();
+        }
+
+    };
 
     static List<X509Certificate> generate(Path path) throws IOException, CertificateException {
-        List<X509Certificate> certificates = new ArrayList<>();
+        return generate(path, PemReader.read(path));
+    }
 
-        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            PEMParser parser = new PEMParser(in);
+    static List<X509Certificate> generate(Object source, List<PemObject> pemObjects) throws CertificateException {
+        List<X509Certificate> certificates = new ArrayList<>(pemObjects.size());
+
+        for (PemObject pemObject : pemObjects) {
+            certificates.add(generate(source, pemObject));
+        }
+
+        return certificates;
+    }
+
+    /**
+     * Decodes PEM blocks on a bounded {@link ForkJoinPool}, returning the certificates in the same order as the blocks.  Falls back to decoding on the calling thread when the number of blocks is
+     * below {@value #PARALLEL_THRESHOLD} (default {@code 64}) or the available parallelism is {@code 1}.
+     */
+    static List<X509Certificate> generateParallel(Object source, List<PemObject> pemObjects) throws CertificateException {
+        if (pemObjects.size() < SystemProperties.getInteger(PARALLEL_THRESHOLD, 64) || PoolHolder.POOL == null) {
+            return generate(source, pemObjects);
+        }
+
+        X509Certificate[] certificates = new X509Certificate[pemObjects.size()];
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        PoolHolder.POOL.invoke(new DecodeAction(source, pemObjects, certificates, failure, 0, pemObjects.size(), Math.max(1, pemObjects.size() / (PoolHolder.POOL.getParallelism() * 4))));
+
+        Exception exception = failure.get();
+        if (exception instanceof CertificateException) {
+            throw (CertificateException) exception;
+        } else if (exception instanceof RuntimeException) {
+            throw (RuntimeException) exception;
+        }
+
+        return Arrays.asList(certificates);
+    }
+
+    static X509Certificate generate(Object source, PemObject pemObject) throws CertificateException {
+        if (!isCertificate(pemObject)) {
+            throw new IllegalStateException(String.format("%s contains an artifact that is not a certificate: %s", source, pemObject));
+        }
+
+        return (X509Certificate) CERTIFICATE_FACTORY.get().generateCertificate(new ByteArrayInputStream(pemObject.getContent()));
+    }
+
+    private static CertificateFactory getCertificateFactory() {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (CertificateException e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
 
-            Object certificate;
-            while ((certificate = parser.readObject()) != null) {
-                if (!(certificate instanceof X509CertificateHolder)) {
-                    throw new IllegalStateException(String.format("%s contains an artifact that is not a certificate: %s", path, certificate));
+    private static boolean isCertificate(PemObject pemObject) {
+        return "CERTIFICATE".equals(pemObject.getType()) || "X509 CERTIFICATE".equals(pemObject.getType());
+    }
+
+    private static final class DecodeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 5428924014213506733L;
+
+        private final X509Certificate[] certificates;
+
+        private final int chunk;
+
+        private final int end;
+
+        private final transient AtomicReference<Exception> failure;
+
+        private final transient List<PemObject> pemObjects;
+
+        private final transient Object source;
+
+        private final int start;
+
+        private DecodeAction(Object source, List<PemObject> pemObjects, X509Certificate[] certificates, AtomicReference<Exception> failure, int start, int end, int chunk) {
+            this.source = source;
+            this.pemObjects = pemObjects;
+            this.certificates = certificates;
+            this.failure = failure;
+            this.start = start;
+            this.end = end;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start > this.chunk) {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new DecodeAction(this.source, this.pemObjects, this.certificates, this.failure, this.start, middle, this.chunk),
+                    new DecodeAction(this.source, this.pemObjects, this.certificates, this.failure, middle, this.end, this.chunk));
+                return;
+            }
+
+            for (int i = this.start; i < this.end && this.failure.get() == null; i++) {
+                try {
+                    this.certificates[i] = generate(this.source, this.pemObjects.get(i));
+                } catch (CertificateException | RuntimeException e) {
+                    this.failure.compareAndSet(null, e);
                 }
+            }
+        }
+
+    }
+
+    private static final class PoolHolder {
 
-                certificates.add(CONVERTER.getCertificate((X509CertificateHolder) certificate));
+        private static final ForkJoinPool POOL = getPool();
+
+        private static ForkJoinPool getPool() {
+            int parallelism = Math.min(Runtime.getRuntime().availableProcessors(), SystemProperties.getInteger(PARALLELISM, 4));
+            if (parallelism <= 1) {
+                return null;
             }
+
+            return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setDaemon(true);
+                    thread.setName(String.format("certificate-decoder-%d", thread.getPoolIndex()));
+                    return thread;
+                }
+
+            }, null, false);
         }
 
-        return certificates;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the background threads used by the provider.  On Java 21 and later these are virtual threads, so the provider adds no platform threads to the JVM.
+ */
+final class Threads {
+
+    private Threads() {
+    }
+
+    static Thread newThread(String name, Runnable runnable) {
+        return Thread.ofVirtual().name(name).unstarted(runnable);
+    }
+
+    static ThreadFactory newThreadFactory(String prefix) {
+        return Thread.ofVirtual().name(String.format("%s-", prefix), 0).factory();
+    }
+
+}
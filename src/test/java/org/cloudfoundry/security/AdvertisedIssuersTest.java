@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.X509TrustManager;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class AdvertisedIssuersTest extends AbstractLoggingTest {
+
+    private final X509Certificate certificate = mock(X509Certificate.class);
+
+    private final X509TrustManager trustManager = mock(X509TrustManager.class);
+
+    @Test
+    public void all() {
+        when(this.trustManager.getAcceptedIssuers()).thenReturn(new X509Certificate[]{this.certificate});
+        AdvertisedIssuers advertisedIssuers = new AdvertisedIssuers("all");
+
+        assertThat(advertisedIssuers.getConfigured()).isNull();
+        assertThat(advertisedIssuers.select(this.trustManager)).containsExactly(this.certificate);
+    }
+
+    @Test
+    public void configured() {
+        AdvertisedIssuers advertisedIssuers = new AdvertisedIssuers("src/test/resources/server-certificates-48.pem");
+
+        assertThat(advertisedIssuers.getConfigured()).hasSize(48);
+        assertThat(advertisedIssuers.select(this.trustManager)).isNull();
+    }
+
+    @Test
+    public void container() {
+        when(this.trustManager.getAcceptedIssuers()).thenReturn(new X509Certificate[]{this.certificate});
+
+        assertThat(new AdvertisedIssuers("container").select(this.trustManager)).isNull();
+    }
+
+    @Test
+    public void invalidConfigured() {
+        when(this.trustManager.getAcceptedIssuers()).thenReturn(new X509Certificate[]{this.certificate});
+        AdvertisedIssuers advertisedIssuers = new AdvertisedIssuers("src/test/resources/does-not-exist.pem");
+
+        assertThat(advertisedIssuers.getConfigured()).isNull();
+        assertThat(advertisedIssuers.select(this.trustManager)).containsExactly(this.certificate);
+    }
+
+    @Test
+    public void none() {
+        when(this.trustManager.getAcceptedIssuers()).thenReturn(new X509Certificate[]{this.certificate});
+
+        assertThat(new AdvertisedIssuers("none").select(this.trustManager)).isNull();
+    }
+
+    @Test
+    public void system() {
+        when(this.trustManager.getAcceptedIssuers()).thenReturn(new X509Certificate[]{this.certificate});
+
+        assertThat(new AdvertisedIssuers("system").select(this.trustManager)).containsExactly(this.certificate);
+    }
+
+}
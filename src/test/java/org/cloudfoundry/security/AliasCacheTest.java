@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.security.auth.x500.X500Principal;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public final class AliasCacheTest {
+
+    private final X509ExtendedKeyManager keyManager = mock(X509ExtendedKeyManager.class);
+
+    private final AliasCache aliasCache = new AliasCache(this.keyManager);
+
+    @Test
+    public void chooseClientAlias() {
+        Socket socket = mock(Socket.class);
+        when(this.keyManager.chooseClientAlias(any(String[].class), any(Principal[].class), any(Socket.class))).thenReturn("alias");
+
+        assertThat(this.aliasCache.chooseClientAlias(new String[]{"RSA"}, new Principal[]{new X500Principal("CN=test")}, socket, null)).isEqualTo("alias");
+        assertThat(this.aliasCache.chooseClientAlias(new String[]{"RSA"}, new Principal[]{new X500Principal("CN=test")}, socket, null)).isEqualTo("alias");
+
+        verify(this.keyManager, times(1)).chooseClientAlias(any(String[].class), any(Principal[].class), any(Socket.class));
+    }
+
+    @Test
+    public void chooseServerAliasDistinguishesKeyTypes() {
+        SSLEngine sslEngine = mock(SSLEngine.class);
+        when(this.keyManager.chooseEngineServerAlias("RSA", null, sslEngine)).thenReturn("alias");
+
+        assertThat(this.aliasCache.chooseServerAlias("RSA", null, null, sslEngine)).isEqualTo("alias");
+        assertThat(this.aliasCache.chooseServerAlias("EC", null, null, sslEngine)).isNull();
+        assertThat(this.aliasCache.chooseClientAlias(new String[]{"RSA"}, null, null, sslEngine)).isNull();
+    }
+
+    @Test
+    public void chooseServerAliasNegative() {
+        Socket socket = mock(Socket.class);
+
+        assertThat(this.aliasCache.chooseServerAlias("EC", null, socket, null)).isNull();
+        assertThat(this.aliasCache.chooseServerAlias("EC", null, socket, null)).isNull();
+
+        verify(this.keyManager, times(1)).chooseServerAlias("EC", null, socket);
+    }
+
+    @Test
+    public void chooseServerAliasSession() {
+        SSLSocket socket = mock(SSLSocket.class);
+        when(this.keyManager.getServerAliases("RSA", null)).thenReturn(new String[]{"alias"});
+        when(this.keyManager.chooseServerAlias("RSA", null, socket)).thenReturn(null, "alias", "alias");
+
+        assertThat(this.aliasCache.chooseServerAlias("RSA", null, socket, null)).isNull();
+        assertThat(this.aliasCache.chooseServerAlias("RSA", null, socket, null)).isEqualTo("alias");
+        assertThat(this.aliasCache.chooseServerAlias("RSA", null, socket, null)).isEqualTo("alias");
+
+        verify(this.keyManager, times(3)).chooseServerAlias("RSA", null, socket);
+    }
+
+    @Test
+    public void chooseServerAliasSessionIndependent() {
+        SSLSocket socket = mock(SSLSocket.class);
+        AliasCache aliasCache = new AliasCache(this.keyManager, "", false);
+        when(this.keyManager.chooseServerAlias("RSA", null, socket)).thenReturn("alias");
+
+        assertThat(aliasCache.chooseServerAlias("RSA", null, socket, null)).isEqualTo("alias");
+        assertThat(aliasCache.chooseServerAlias("RSA", null, socket, null)).isEqualTo("alias");
+
+        verify(this.keyManager, times(1)).chooseServerAlias("RSA", null, socket);
+    }
+
+    @Test
+    public void chooseServerAliasSessionNegative() {
+        SSLEngine sslEngine = mock(SSLEngine.class);
+
+        assertThat(this.aliasCache.chooseServerAlias("EC", null, null, sslEngine)).isNull();
+        assertThat(this.aliasCache.chooseServerAlias("EC", null, null, sslEngine)).isNull();
+
+        verify(this.keyManager, times(1)).chooseEngineServerAlias("EC", null, sslEngine);
+    }
+
+    @Test
+    public void getCertificateChain() {
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(this.keyManager.getCertificateChain("alias")).thenReturn(new X509Certificate[]{certificate});
+
+        X509Certificate[] chain = this.aliasCache.getCertificateChain("alias");
+        chain[0] = null;
+
+        assertThat(this.aliasCache.getCertificateChain("alias")).containsExactly(certificate);
+        verify(this.keyManager, times(1)).getCertificateChain("alias");
+    }
+
+    @Test
+    public void getCertificateChainNone() {
+        assertThat(this.aliasCache.getCertificateChain("alias")).isNull();
+        assertThat(this.aliasCache.getCertificateChain(null)).isNull();
+    }
+
+}
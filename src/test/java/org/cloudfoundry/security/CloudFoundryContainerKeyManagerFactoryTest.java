@@ -71,6 +71,32 @@ public final class CloudFoundryContainerKeyManagerFactoryTest extends AbstractLo
         assertThat(((DelegatingX509ExtendedKeyManager) keyManager).size()).isEqualTo(1);
     }
 
+    @Test
+    public void defaultKeyStore() throws NoSuchProviderException, NoSuchAlgorithmException, KeyStoreException, UnrecoverableKeyException {
+        CloudFoundryContainerKeyManagerFactory.SunX509 factory = new CloudFoundryContainerKeyManagerFactory.SunX509(null, null);
+        factory.engineInit(null, null);
+
+        KeyManager keyManager = factory.engineGetKeyManagers()[0];
+        assertThat(keyManager).isInstanceOf(DelegatingX509ExtendedKeyManager.class);
+        assertThat(((DelegatingX509ExtendedKeyManager) keyManager).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void sharedKeyManager() throws NoSuchProviderException, NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException, UnrecoverableKeyException {
+        CloudFoundryContainerKeyManagerFactory.SunX509 factory = new CloudFoundryContainerKeyManagerFactory.SunX509(
+            Paths.get("src/test/resources/client-certificates-1.pem"),
+            Paths.get("src/test/resources/client-private-key-1.pem"));
+        factory.engineInit(getKeyStore(), new char[0]);
+
+        KeyManager[] keyManagers1 = factory.engineGetKeyManagers();
+        KeyManager[] keyManagers2 = factory.engineGetKeyManagers();
+        assertThat(keyManagers1).isNotSameAs(keyManagers2);
+        assertThat(keyManagers1[0]).isSameAs(keyManagers2[0]);
+
+        factory.engineInit(getKeyStore(), new char[0]);
+        assertThat(factory.engineGetKeyManagers()[0]).isNotSameAs(keyManagers1[0]);
+    }
+
     private KeyStore getKeyStore() throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         keyStore.load(null);
@@ -51,6 +51,65 @@ public final class CloudFoundryContainerTrustManagerFactoryTest extends Abstract
         assertThat(((DelegatingX509ExtendedTrustManager) trustManager).size()).isEqualTo(1);
     }
 
+    @Test
+    public void defaultTrustStore() throws NoSuchProviderException, NoSuchAlgorithmException, KeyStoreException {
+        CloudFoundryContainerTrustManagerFactory.PKIXFactory factory = new CloudFoundryContainerTrustManagerFactory.PKIXFactory(Paths.get("src/test/resources/server-certificates-48.pem"));
+        factory.engineInit((KeyStore) null);
+
+        TrustManager trustManager = factory.engineGetTrustManagers()[0];
+        assertThat(trustManager).isInstanceOf(DelegatingX509ExtendedTrustManager.class);
+        assertThat(((DelegatingX509ExtendedTrustManager) trustManager).size()).isEqualTo(2);
+    }
+
+    @Test
+    public void sharedTrustManager() throws NoSuchProviderException, NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        CloudFoundryContainerTrustManagerFactory.PKIXFactory factory = new CloudFoundryContainerTrustManagerFactory.PKIXFactory(Paths.get("src/test/resources/server-certificates-48.pem"));
+        factory.engineInit(getKeyStore());
+
+        TrustManager[] trustManagers1 = factory.engineGetTrustManagers();
+        TrustManager[] trustManagers2 = factory.engineGetTrustManagers();
+        assertThat(trustManagers1).isNotSameAs(trustManagers2);
+        assertThat(trustManagers1[0]).isSameAs(trustManagers2[0]);
+
+        factory.engineInit(getKeyStore());
+        assertThat(factory.engineGetTrustManagers()[0]).isNotSameAs(trustManagers1[0]);
+    }
+
+    @Test
+    public void sharedUnifiedTrustManager() throws NoSuchProviderException, NoSuchAlgorithmException, KeyStoreException {
+        System.setProperty(UnifiedX509ExtendedTrustManager.ENABLED, "true");
+        try {
+            CloudFoundryContainerTrustManagerFactory.PKIXFactory factory1 = new CloudFoundryContainerTrustManagerFactory.PKIXFactory(Paths.get("src/test/resources/server-certificates-48.pem"));
+            factory1.engineInit((KeyStore) null);
+            CloudFoundryContainerTrustManagerFactory.PKIXFactory factory2 = new CloudFoundryContainerTrustManagerFactory.PKIXFactory(Paths.get("src/test/resources/server-certificates-48.pem"));
+            factory2.engineInit((KeyStore) null);
+
+            DelegatingX509ExtendedTrustManager trustManager1 = (DelegatingX509ExtendedTrustManager) factory1.engineGetTrustManagers()[0];
+            DelegatingX509ExtendedTrustManager trustManager2 = (DelegatingX509ExtendedTrustManager) factory2.engineGetTrustManagers()[0];
+            assertThat(trustManager1).isNotSameAs(trustManager2);
+            assertThat(trustManager1.getDelegate(0)).isInstanceOf(UnifiedX509ExtendedTrustManager.class);
+            assertThat(trustManager1.getDelegate(0)).isSameAs(trustManager2.getDelegate(0));
+        } finally {
+            System.clearProperty(UnifiedX509ExtendedTrustManager.ENABLED);
+        }
+    }
+
+    @Test
+    public void unifiedTrustManager() throws NoSuchProviderException, NoSuchAlgorithmException, CertificateException, KeyStoreException, IOException {
+        System.setProperty(UnifiedX509ExtendedTrustManager.ENABLED, "true");
+        try {
+            CloudFoundryContainerTrustManagerFactory.PKIXFactory factory = new CloudFoundryContainerTrustManagerFactory.PKIXFactory(Paths.get("src/test/resources/server-certificates-48.pem"));
+            factory.engineInit(getKeyStore());
+
+            TrustManager trustManager = factory.engineGetTrustManagers()[0];
+            assertThat(trustManager).isInstanceOf(DelegatingX509ExtendedTrustManager.class);
+            assertThat(((DelegatingX509ExtendedTrustManager) trustManager).size()).isEqualTo(1);
+            assertThat(((DelegatingX509ExtendedTrustManager) trustManager).getAcceptedIssuers()).hasSize(48);
+        } finally {
+            System.clearProperty(UnifiedX509ExtendedTrustManager.ENABLED);
+        }
+    }
+
     private KeyStore getKeyStore() throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         keyStore.load(null);
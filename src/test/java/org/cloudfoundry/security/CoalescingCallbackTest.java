@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class CoalescingCallbackTest {
+
+    @Test
+    public void coalescesBurst() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch invoked = new CountDownLatch(1);
+
+        CoalescingCallback callback = new CoalescingCallback(new CountingCallback(invocations, invoked, null), TimeUnit.MILLISECONDS.toNanos(100));
+        for (int i = 0; i < 100; i++) {
+            callback.run();
+        }
+
+        assertThat(invoked.await(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(500);
+        assertThat(invocations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void queuesSingleInvocationWhileRunning() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch invoked = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CoalescingCallback callback = new CoalescingCallback(new CountingCallback(invocations, invoked, release), 0);
+        callback.run();
+
+        Thread.sleep(100);
+        for (int i = 0; i < 100; i++) {
+            callback.run();
+        }
+        release.countDown();
+
+        assertThat(invoked.await(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(500);
+        assertThat(invocations.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void survivesFailingCallback() throws InterruptedException {
+        CountDownLatch invoked = new CountDownLatch(2);
+
+        CoalescingCallback callback = new CoalescingCallback(new Runnable() {
+
+            @Override
+            public void run() {
+                invoked.countDown();
+                throw new IllegalStateException("test-failure");
+            }
+
+        }, 0);
+
+        callback.run();
+        Thread.sleep(100);
+        callback.run();
+
+        assertThat(invoked.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static final class CountingCallback implements Runnable {
+
+        private final CountDownLatch invoked;
+
+        private final AtomicInteger invocations;
+
+        private final CountDownLatch release;
+
+        private CountingCallback(AtomicInteger invocations, CountDownLatch invoked, CountDownLatch release) {
+            this.invocations = invocations;
+            this.invoked = invoked;
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            this.invocations.incrementAndGet();
+
+            try {
+                if (this.release != null) {
+                    this.release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            this.invoked.countDown();
+        }
+
+    }
+
+}
@@ -18,16 +18,29 @@ package org.cloudfoundry.security;
 
 import org.junit.Test;
 
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
 import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -160,6 +173,24 @@ public final class DelegatingX509ExtendedTrustManagerTest {
         }
     }
 
+    @Test
+    public void checkServerTrustedCached() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        String s = "RSA";
+        ValidatedChainCache chainCache = new ValidatedChainCache(16, 60_000, 10_000);
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), chainCache, new AdvertisedIssuers("all"), null);
+
+        doThrow(new CertificateException("1")).when(this.trustManager1).checkServerTrusted(x509Certificates, s);
+
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+
+        verify(this.trustManager1, times(1)).checkServerTrusted(x509Certificates, s);
+        verify(this.trustManager2, times(1)).checkServerTrusted(x509Certificates, s);
+        assertThat(chainCache.getHits()).isEqualTo(1);
+        assertThat(chainCache.getMisses()).isEqualTo(1);
+    }
+
     @Test
     public void checkServerTrustedFirstPass() throws CertificateException {
         X509Certificate[] x509Certificates = new X509Certificate[0];
@@ -198,6 +229,87 @@ public final class DelegatingX509ExtendedTrustManagerTest {
         }
     }
 
+    @Test
+    public void checkServerTrustedRejectionCached() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        String s = "RSA";
+        ValidatedChainCache chainCache = new ValidatedChainCache(16, 60_000, 10_000);
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), chainCache, new AdvertisedIssuers("all"), null);
+
+        doThrow(new CertificateException("1")).when(this.trustManager1).checkServerTrusted(x509Certificates, s);
+        doThrow(new CertificateException("2")).when(this.trustManager2).checkServerTrusted(x509Certificates, s);
+
+        try {
+            delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("2");
+        }
+
+        CertificateException rejection = null;
+        for (int i = 0; i < 2; i++) {
+            try {
+                delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+                failBecauseExceptionWasNotThrown(CertificateException.class);
+            } catch (CertificateException e) {
+                assertThat(e).hasMessage("Certificate chain has recently been rejected");
+                assertThat(e.getStackTrace()).isEmpty();
+                assertThat(e).isNotSameAs(rejection);
+                rejection = e;
+            }
+        }
+
+        verify(this.trustManager1, times(1)).checkServerTrusted(x509Certificates, s);
+        verify(this.trustManager2, times(1)).checkServerTrusted(x509Certificates, s);
+        assertThat(chainCache.getRejectionHits()).isEqualTo(2);
+    }
+
+    @Test
+    public void checkServerTrustedRevoked() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/revocations/revoked.crt")};
+        String s = "RSA";
+        RevocationList revocationList = new RevocationList(Paths.get("src/test/resources/revocations/alpha.crl"));
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), null, new AdvertisedIssuers("all"),
+            revocationList);
+
+        try {
+            delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("CN=revoked.alpha.example.com has been revoked");
+        }
+
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s);
+    }
+
+    @Test
+    public void checkServerTrustedRouted() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")};
+        String s = "RSA";
+
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")});
+
+        this.delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+
+        verify(this.trustManager1, never()).checkServerTrusted(x509Certificates, s);
+        verify(this.trustManager2).checkServerTrusted(x509Certificates, s);
+    }
+
+    @Test
+    public void checkServerTrustedRoutedFallback() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")};
+        String s = "RSA";
+
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")});
+        doThrow(new CertificateException("2")).when(this.trustManager2).checkServerTrusted(x509Certificates, s);
+
+        this.delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s);
+    }
+
     @Test
     public void checkServerTrustedSocketFirstPass() throws CertificateException {
         X509Certificate[] x509Certificates = new X509Certificate[0];
@@ -251,6 +363,43 @@ public final class DelegatingX509ExtendedTrustManagerTest {
         verifyNoInteractions(this.trustManager2);
     }
 
+    @Test
+    public void checkServerTrustedSslEngineIdentificationCached() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        String s = "RSA";
+        SSLEngine sslEngine1 = getSslEngine("alpha.example.com", "TLSv1.3", "HTTPS");
+        SSLEngine sslEngine2 = getSslEngine("alpha.example.com", "TLSv1.3", "HTTPS");
+        SSLEngine sslEngine3 = getSslEngine("beta.example.com", "TLSv1.3", "HTTPS");
+        ValidatedChainCache chainCache = new ValidatedChainCache(16, 60_000, 10_000);
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), chainCache, new AdvertisedIssuers("all"), null);
+
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine1);
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine2);
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine3);
+
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s, sslEngine1);
+        verify(this.trustManager1, never()).checkServerTrusted(x509Certificates, s, sslEngine2);
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s, sslEngine3);
+        assertThat(chainCache.getIdentityHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void checkServerTrustedSslEngineIdentificationNotCached() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        String s = "RSA";
+        SSLEngine sslEngine = mock(SSLEngine.class);
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), new ValidatedChainCache(16, 60_000, 10_000), new AdvertisedIssuers("all"), null);
+
+        SSLParameters sslParameters = new SSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        when(sslEngine.getSSLParameters()).thenReturn(sslParameters);
+
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine);
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine);
+
+        verify(this.trustManager1, times(2)).checkServerTrusted(x509Certificates, s, sslEngine);
+    }
+
     @Test
     public void checkServerTrustedSslEngineLastPass() throws CertificateException {
         X509Certificate[] x509Certificates = new X509Certificate[0];
@@ -280,6 +429,79 @@ public final class DelegatingX509ExtendedTrustManagerTest {
         }
     }
 
+    @Test
+    public void checkServerTrustedSslEngineProtocolCached() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        String s = "RSA";
+        SSLEngine sslEngine1 = getSslEngine("alpha.example.com", "TLSv1.3", null);
+        SSLEngine sslEngine2 = getSslEngine("alpha.example.com", "TLSv1.3", null);
+        SSLEngine sslEngine3 = getSslEngine("alpha.example.com", "TLSv1.2", null);
+        ValidatedChainCache chainCache = new ValidatedChainCache(16, 60_000, 10_000);
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), chainCache, new AdvertisedIssuers("all"), null);
+
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine1);
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine2);
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine3);
+
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s, sslEngine1);
+        verify(this.trustManager1, never()).checkServerTrusted(x509Certificates, s, sslEngine2);
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s, sslEngine3);
+        assertThat(chainCache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void checkServerTrustedSslEngineRejectionCached() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        String s = "RSA";
+        SSLEngine sslEngine1 = getSslEngine("alpha.example.com", "TLSv1.2", null);
+        SSLEngine sslEngine2 = getSslEngine("alpha.example.com", "TLSv1.2", null);
+        SSLEngine sslEngine3 = getSslEngine("alpha.example.com", "TLSv1.3", null);
+        ValidatedChainCache chainCache = new ValidatedChainCache(16, 60_000, 10_000);
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), chainCache, new AdvertisedIssuers("all"), null);
+
+        doThrow(new CertificateException("1")).when(this.trustManager1).checkServerTrusted(x509Certificates, s, sslEngine1);
+        doThrow(new CertificateException("2")).when(this.trustManager2).checkServerTrusted(x509Certificates, s, sslEngine1);
+
+        try {
+            delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine1);
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("2");
+        }
+
+        try {
+            delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine2);
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("Certificate chain has recently been rejected");
+        }
+
+        delegatingTrustManager.checkServerTrusted(x509Certificates, s, sslEngine3);
+
+        verify(this.trustManager1, never()).checkServerTrusted(x509Certificates, s, sslEngine2);
+        verify(this.trustManager1).checkServerTrusted(x509Certificates, s, sslEngine3);
+        assertThat(chainCache.getRejectionHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void checkServerTrustedUnknownIssuer() throws CertificateException, IOException {
+        X509Certificate[] x509Certificates = new X509Certificate[]{getCertificate("src/test/resources/client-certificates-ec.pem")};
+        String s = "EC";
+
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")});
+
+        try {
+            this.delegatingTrustManager.checkServerTrusted(x509Certificates, s);
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("No trusted issuer for CN=client-ec");
+        }
+
+        verify(this.trustManager1, never()).checkServerTrusted(x509Certificates, s);
+        verify(this.trustManager2, never()).checkServerTrusted(x509Certificates, s);
+    }
+
     @Test
     public void getAcceptedIssuers() {
         X509Certificate certificate1 = mock(X509Certificate.class);
@@ -291,9 +513,53 @@ public final class DelegatingX509ExtendedTrustManagerTest {
         assertThat(this.delegatingTrustManager.getAcceptedIssuers()).contains(certificate1, certificate2);
     }
 
+    @Test
+    public void getAcceptedIssuersCached() {
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{certificate});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{certificate});
+
+        X509Certificate[] acceptedIssuers = this.delegatingTrustManager.getAcceptedIssuers();
+        acceptedIssuers[0] = null;
+
+        assertThat(this.delegatingTrustManager.getAcceptedIssuers()).containsExactly(certificate);
+        verify(this.trustManager1, times(1)).getAcceptedIssuers();
+    }
+
+    @Test
+    public void getAcceptedIssuersNone() {
+        X509ExtendedTrustManager delegatingTrustManager = new DelegatingX509ExtendedTrustManager(Arrays.asList(this.trustManager1, this.trustManager2), null, new AdvertisedIssuers("none"), null);
+
+        assertThat(delegatingTrustManager.getAcceptedIssuers()).isEmpty();
+        verifyNoInteractions(this.trustManager1, this.trustManager2);
+    }
+
     @Test
     public void getAcceptedIssuersNull() {
         assertThat(this.delegatingTrustManager.getAcceptedIssuers()).isEmpty();
     }
 
+    static X509Certificate getCertificate(String path) throws CertificateException, IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+        }
+    }
+
+    private static SSLEngine getSslEngine(String hostName, String protocol, String identificationAlgorithm) {
+        ExtendedSSLSession sslSession = mock(ExtendedSSLSession.class);
+        when(sslSession.getLocalSupportedSignatureAlgorithms()).thenReturn("TLSv1.3".equals(protocol) ? new String[]{"rsa_pss_rsae_sha256"} : new String[]{"SHA256withRSA", "SHA1withRSA"});
+        when(sslSession.getPeerHost()).thenReturn(hostName);
+        when(sslSession.getProtocol()).thenReturn(protocol);
+        when(sslSession.getRequestedServerNames()).thenReturn(Collections.<SNIServerName>singletonList(new SNIHostName(hostName)));
+
+        SSLParameters sslParameters = new SSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm(identificationAlgorithm);
+
+        SSLEngine sslEngine = mock(SSLEngine.class);
+        when(sslEngine.getHandshakeSession()).thenReturn(sslSession);
+        when(sslEngine.getSSLParameters()).thenReturn(sslParameters);
+
+        return sslEngine;
+    }
+
 }
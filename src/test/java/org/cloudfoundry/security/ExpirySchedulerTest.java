@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class ExpirySchedulerTest {
+
+    @Test
+    public void cancels() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+
+        ExpiryScheduler expiryScheduler = new ExpiryScheduler("test-source", new CountingCallback(invocations), 1_000, 500);
+        expiryScheduler.schedule(new Date(System.currentTimeMillis() + 1_200));
+        expiryScheduler.schedule(null);
+
+        Thread.sleep(1_500);
+        assertThat(invocations.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void checksAtLeadTimeAndBeforeExpiry() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+
+        ExpiryScheduler expiryScheduler = new ExpiryScheduler("test-source", new CountingCallback(invocations), 1_000, 500);
+        expiryScheduler.schedule(new Date(System.currentTimeMillis() + 2_000));
+
+        Thread.sleep(1_250);
+        assertThat(invocations.get()).isEqualTo(1);
+
+        Thread.sleep(500);
+        assertThat(invocations.get()).isEqualTo(2);
+
+        expiryScheduler.schedule(null);
+    }
+
+    @Test
+    public void checksEachExpiryOnce() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+        long now = System.currentTimeMillis();
+
+        ExpiryScheduler expiryScheduler = new ExpiryScheduler("test-source", new CountingCallback(invocations), 1_000, 200);
+        expiryScheduler.scheduleEach(Arrays.asList(new Date(now + 2_500), new Date(now - 1_000), new Date(now + 300)));
+
+        Thread.sleep(1_000);
+        assertThat(invocations.get()).isEqualTo(2);
+
+        Thread.sleep(2_000);
+        assertThat(invocations.get()).isEqualTo(5);
+
+        Thread.sleep(600);
+        assertThat(invocations.get()).isEqualTo(5);
+
+        expiryScheduler.schedule(null);
+    }
+
+    @Test
+    public void reschedules() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+
+        ExpiryScheduler expiryScheduler = new ExpiryScheduler("test-source", new CountingCallback(invocations), 1_000, 500);
+        expiryScheduler.schedule(new Date(System.currentTimeMillis() + 1_200));
+        expiryScheduler.schedule(new Date(System.currentTimeMillis() + 60_000));
+
+        Thread.sleep(1_500);
+        assertThat(invocations.get()).isEqualTo(0);
+
+        expiryScheduler.schedule(null);
+    }
+
+    private static final class CountingCallback implements Runnable {
+
+        private final AtomicInteger invocations;
+
+        private CountingCallback(AtomicInteger invocations) {
+            this.invocations = invocations;
+        }
+
+        @Override
+        public void run() {
+            this.invocations.incrementAndGet();
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class FileWatcherTest extends AbstractLoggingTest {
+
+    @Test
+    public void coalescesMultipleSources() throws IOException, InterruptedException {
+        Path workDirectory = Files.createTempDirectory("file-watcher-test-");
+        Path first = workDirectory.resolve("first.pem");
+        Path second = workDirectory.resolve("second.pem");
+
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch changed = new CountDownLatch(1);
+
+        FileWatcher.watch(new Runnable() {
+
+            @Override
+            public void run() {
+                invocations.incrementAndGet();
+                changed.countDown();
+            }
+
+        }, first, second);
+
+        Files.write(first, "first".getBytes(StandardCharsets.US_ASCII));
+        Files.write(second, "second".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(changed.await(300, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(1_000);
+        assertThat(invocations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void dispatchesByFileName() throws IOException, InterruptedException {
+        Path workDirectory = Files.createTempDirectory("file-watcher-test-");
+        Path first = workDirectory.resolve("first.pem");
+        Path second = workDirectory.resolve("second.pem");
+
+        CountDownLatch firstChanged = new CountDownLatch(1);
+        CountDownLatch secondChanged = new CountDownLatch(1);
+
+        FileWatcher.watch(new CountDownCallback(firstChanged), first);
+        FileWatcher.watch(new CountDownCallback(secondChanged), second);
+
+        Files.write(workDirectory.resolve("unrelated.pem"), "unrelated".getBytes(StandardCharsets.US_ASCII));
+        Files.write(first, "first".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(firstChanged.await(300, TimeUnit.SECONDS)).isTrue();
+        assertThat(secondChanged.getCount()).isEqualTo(1);
+
+        Files.write(second, "second".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(secondChanged.await(300, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void survivesFailingCallback() throws IOException, InterruptedException {
+        Path workDirectory = Files.createTempDirectory("file-watcher-test-");
+        Path source = workDirectory.resolve("source.pem");
+
+        CountDownLatch changed = new CountDownLatch(1);
+
+        FileWatcher.watch(new Runnable() {
+
+            @Override
+            public void run() {
+                throw new IllegalStateException("test-failure");
+            }
+
+        }, source);
+        FileWatcher.watch(new CountDownCallback(changed), source);
+
+        Files.write(source, "source".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(changed.await(300, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void watchesDirectory() throws IOException, InterruptedException {
+        Path workDirectory = Files.createTempDirectory("file-watcher-test-");
+
+        CountDownLatch changed = new CountDownLatch(1);
+
+        FileWatcher.watch(new CountDownCallback(changed), workDirectory);
+
+        Files.write(workDirectory.resolve("source.pem"), "source".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(changed.await(300, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void watchesSwapLink() throws IOException, InterruptedException {
+        Path workDirectory = Files.createTempDirectory("file-watcher-test-");
+        Files.createDirectory(workDirectory.resolve("..2019_01_01"));
+        Files.write(workDirectory.resolve("..2019_01_01/source.pem"), "first".getBytes(StandardCharsets.US_ASCII));
+        Files.createSymbolicLink(workDirectory.resolve("..data"), Paths.get("..2019_01_01"));
+
+        Path source = workDirectory.resolve("source.pem");
+        Files.createSymbolicLink(source, Paths.get("..data/source.pem"));
+
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch changed = new CountDownLatch(1);
+
+        FileWatcher.watch(new Runnable() {
+
+            @Override
+            public void run() {
+                invocations.incrementAndGet();
+                changed.countDown();
+            }
+
+        }, source);
+
+        Files.createDirectory(workDirectory.resolve("..2019_01_02"));
+        Files.write(workDirectory.resolve("..2019_01_02/source.pem"), "second".getBytes(StandardCharsets.US_ASCII));
+        Files.createSymbolicLink(workDirectory.resolve("..data_tmp"), Paths.get("..2019_01_02"));
+        Files.move(workDirectory.resolve("..data_tmp"), workDirectory.resolve("..data"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(changed.await(300, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(1_000);
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(new String(Files.readAllBytes(source), StandardCharsets.US_ASCII)).isEqualTo("second");
+    }
+
+    private static final class CountDownCallback implements Runnable {
+
+        private final CountDownLatch latch;
+
+        private CountDownCallback(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            this.latch.countDown();
+        }
+
+    }
+
+}
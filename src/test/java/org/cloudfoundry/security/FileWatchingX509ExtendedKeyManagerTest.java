@@ -16,21 +16,35 @@
 
 package org.cloudfoundry.security;
 
+import org.junit.Rule;
 import org.junit.Test;
 
+import javax.net.ssl.ExtendedSSLSession;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public final class FileWatchingX509ExtendedKeyManagerTest extends AbstractLoggingTest {
 
+    @Rule
+    public final ManualReload manualReload = new ManualReload();
+
     @Test
     public void initializedWithWatchedFile() throws IOException, NoSuchAlgorithmException {
         Path watchedCertificates = getWatchedCertificatesFile();
@@ -44,6 +58,142 @@ public final class FileWatchingX509ExtendedKeyManagerTest extends AbstractLoggin
         assertThat(keyManager.getClientAliases("RSA", null)).hasSize(1);
     }
 
+    @Test
+    @ManualReload.Enabled
+    public void choosesIdentityByServerName() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedCertificatesFile();
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates);
+
+        Path watchedPrivateKey = getWatchedPrivateKeyFile();
+        Files.copy(Paths.get("src/test/resources/client-private-key-1.pem"), watchedPrivateKey);
+
+        Path watchedIdentities = Files.createTempDirectory("file-watching-key-manager-test-");
+        Files.copy(Paths.get("src/test/resources/identities/alpha.crt"), watchedIdentities.resolve("alpha.crt"));
+        Files.copy(Paths.get("src/test/resources/identities/alpha.key"), watchedIdentities.resolve("alpha.key"));
+        Files.copy(Paths.get("src/test/resources/identities/beta.crt"), watchedIdentities.resolve("beta.crt"));
+
+        FileWatchingX509ExtendedKeyManager keyManager = new FileWatchingX509ExtendedKeyManager(watchedCertificates, watchedPrivateKey, watchedIdentities,
+            KeyManagerFactory.getInstance("NewSunX509"));
+
+        assertThat(keyManager.getServerAliases("RSA", null)).hasSize(2);
+        assertThat(getSubject(keyManager, keyManager.chooseEngineServerAlias("RSA", null, getSslEngine("alpha.example.com")))).isEqualTo("CN=alpha.example.com");
+
+        Files.copy(Paths.get("src/test/resources/identities/beta.key"), watchedIdentities.resolve("beta.key"));
+        assertThat(keyManager.reload()).isTrue();
+
+        assertThat(keyManager.getServerAliases("RSA", null)).hasSize(3);
+        assertThat(getSubject(keyManager, keyManager.chooseEngineServerAlias("RSA", null, getSslEngine("test.beta.example.com")))).isEqualTo("CN=beta.example.com");
+    }
+
+    @Test
+    @ManualReload.Enabled
+    public void reloadsChangedContent() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedCertificatesFile();
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates);
+
+        Path watchedPrivateKey = getWatchedPrivateKeyFile();
+        Files.copy(Paths.get("src/test/resources/client-private-key-1.pem"), watchedPrivateKey);
+
+        FileWatchingX509ExtendedKeyManager keyManager = new FileWatchingX509ExtendedKeyManager(watchedCertificates, watchedPrivateKey, KeyManagerFactory.getInstance("SunX509"));
+        String alias = keyManager.getClientAliases("RSA", null)[0];
+
+        Files.copy(Paths.get("src/test/resources/client-certificates-2.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(Paths.get("src/test/resources/client-private-key-2.pem"), watchedPrivateKey, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(keyManager.reload()).isTrue();
+        assertThat(keyManager.getClientAliases("RSA", null)[0]).isNotEqualTo(alias);
+    }
+
+    @Test
+    @ManualReload.Enabled
+    public void releasesPreviousGenerationWithoutGracePeriod() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedCertificatesFile();
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates);
+
+        Path watchedPrivateKey = getWatchedPrivateKeyFile();
+        Files.copy(Paths.get("src/test/resources/client-private-key-1.pem"), watchedPrivateKey);
+
+        System.setProperty(FileWatchingX509ExtendedKeyManager.GRACE_PERIOD, "0");
+        try {
+            FileWatchingX509ExtendedKeyManager keyManager = new FileWatchingX509ExtendedKeyManager(watchedCertificates, watchedPrivateKey, KeyManagerFactory.getInstance("SunX509"));
+            String alias = keyManager.chooseClientAlias(new String[]{"RSA"}, null, null);
+
+            Files.copy(Paths.get("src/test/resources/client-certificates-2.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(Paths.get("src/test/resources/client-private-key-2.pem"), watchedPrivateKey, StandardCopyOption.REPLACE_EXISTING);
+            assertThat(keyManager.reload()).isTrue();
+
+            assertThat(keyManager.getCertificateChain(alias)).isNull();
+            assertThat(keyManager.getPrivateKey(alias)).isNull();
+        } finally {
+            System.clearProperty(FileWatchingX509ExtendedKeyManager.GRACE_PERIOD);
+        }
+    }
+
+    @Test
+    @ManualReload.Enabled
+    public void resolvesPreviousGenerationWithinGracePeriod() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedCertificatesFile();
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates);
+
+        Path watchedPrivateKey = getWatchedPrivateKeyFile();
+        Files.copy(Paths.get("src/test/resources/client-private-key-1.pem"), watchedPrivateKey);
+
+        FileWatchingX509ExtendedKeyManager keyManager = new FileWatchingX509ExtendedKeyManager(watchedCertificates, watchedPrivateKey, KeyManagerFactory.getInstance("SunX509"));
+        String alias = keyManager.chooseClientAlias(new String[]{"RSA"}, null, null);
+        String subject = getSubject(keyManager, alias);
+
+        Files.copy(Paths.get("src/test/resources/client-certificates-2.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(Paths.get("src/test/resources/client-private-key-2.pem"), watchedPrivateKey, StandardCopyOption.REPLACE_EXISTING);
+        assertThat(keyManager.reload()).isTrue();
+
+        String rotated = keyManager.chooseClientAlias(new String[]{"RSA"}, null, null);
+        assertThat(rotated).isNotEqualTo(alias);
+        assertThat(getSubject(keyManager, alias)).isEqualTo(subject);
+        assertThat(keyManager.getPrivateKey(alias)).isNotNull();
+        assertThat(keyManager.getPrivateKey(alias)).isNotEqualTo(keyManager.getPrivateKey(rotated));
+    }
+
+    @Test
+    public void retainsGenerationWhenKeyDoesNotMatch() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedCertificatesFile();
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates);
+
+        Path watchedPrivateKey = getWatchedPrivateKeyFile();
+        Files.copy(Paths.get("src/test/resources/client-private-key-1.pem"), watchedPrivateKey);
+
+        FileWatchingX509ExtendedKeyManager keyManager = new FileWatchingX509ExtendedKeyManager(watchedCertificates, watchedPrivateKey, KeyManagerFactory.getInstance("SunX509"));
+        String alias = keyManager.getClientAliases("RSA", null)[0];
+
+        Files.copy(Paths.get("src/test/resources/client-certificates-2.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+
+        try {
+            keyManager.reload();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage(String.format("%s does not match the leaf certificate in %s", watchedPrivateKey, watchedCertificates));
+        }
+
+        assertThat(keyManager.getClientAliases("RSA", null)[0]).isEqualTo(alias);
+    }
+
+    @Test
+    public void skipsUnchangedContent() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedCertificatesFile();
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates);
+
+        Path watchedPrivateKey = getWatchedPrivateKeyFile();
+        Files.copy(Paths.get("src/test/resources/client-private-key-1.pem"), watchedPrivateKey);
+
+        FileWatchingX509ExtendedKeyManager keyManager = new FileWatchingX509ExtendedKeyManager(watchedCertificates, watchedPrivateKey, KeyManagerFactory.getInstance("SunX509"));
+        String alias = keyManager.getClientAliases("RSA", null)[0];
+
+        Files.copy(Paths.get("src/test/resources/client-certificates-1.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(watchedPrivateKey, FileTime.fromMillis(System.currentTimeMillis()));
+
+        assertThat(keyManager.reload()).isFalse();
+        assertThat(keyManager.getClientAliases("RSA", null)[0]).isEqualTo(alias);
+    }
+
     @Test
     public void watchesWatchedFile() throws IOException, InterruptedException, NoSuchAlgorithmException {
         Path watchedCertificates = getWatchedCertificatesFile();
@@ -74,6 +224,20 @@ public final class FileWatchingX509ExtendedKeyManagerTest extends AbstractLoggin
         }
     }
 
+    private SSLEngine getSslEngine(String hostName) {
+        ExtendedSSLSession session = mock(ExtendedSSLSession.class);
+        when(session.getRequestedServerNames()).thenReturn(Collections.<SNIServerName>singletonList(new SNIHostName(hostName)));
+
+        SSLEngine sslEngine = mock(SSLEngine.class);
+        when(sslEngine.getHandshakeSession()).thenReturn(session);
+
+        return sslEngine;
+    }
+
+    private String getSubject(X509ExtendedKeyManager keyManager, String alias) {
+        return keyManager.getCertificateChain(alias)[0].getSubjectX500Principal().getName();
+    }
+
     private Path getWatchedCertificatesFile() throws IOException {
         Path workDirectory = Files.createTempDirectory("file-watching-key-manager-test-");
         return workDirectory.resolve("certificates.pem");
@@ -16,21 +16,32 @@
 
 package org.cloudfoundry.security;
 
+import org.junit.Rule;
 import org.junit.Test;
 
 import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 
 public final class FileWatchingX509ExtendedTrustManagerTest extends AbstractLoggingTest {
 
+    @Rule
+    public final ManualReload manualReload = new ManualReload();
+
     @Test
     public void initializedWithWatchedFile() throws IOException, NoSuchAlgorithmException {
         Path watchedCertificates = getWatchedFile();
@@ -41,6 +52,88 @@ public final class FileWatchingX509ExtendedTrustManagerTest extends AbstractLogg
         assertThat(trustManager.getAcceptedIssuers()).hasSize(48);
     }
 
+    @Test
+    public void initializedWithWatchedFileParallel() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-173.pem"), watchedCertificates);
+
+        System.setProperty(FileWatchingX509ExtendedTrustManager.PARALLEL_ENABLED, "true");
+        try {
+            FileWatchingX509ExtendedTrustManager trustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+
+            assertThat(trustManager.getAcceptedIssuers()).hasSize(173);
+        } finally {
+            System.clearProperty(FileWatchingX509ExtendedTrustManager.PARALLEL_ENABLED);
+        }
+    }
+
+    @Test
+    @ManualReload.Enabled
+    public void reloadsChangedContent() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        FileWatchingX509ExtendedTrustManager trustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+        Files.copy(Paths.get("src/test/resources/server-certificates-173.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(trustManager.reload()).isTrue();
+        assertThat(trustManager.getAcceptedIssuers()).hasSize(173);
+    }
+
+    @Test
+    @ManualReload.Enabled
+    public void reusesUnchangedCertificates() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        FileWatchingX509ExtendedTrustManager trustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+        X509Certificate[] previous = trustManager.getAcceptedIssuers();
+
+        Files.write(watchedCertificates, Files.readAllBytes(Paths.get("src/test/resources/client-certificates-1.pem")), StandardOpenOption.APPEND);
+
+        assertThat(trustManager.reload()).isTrue();
+        assertThat(trustManager.getAcceptedIssuers()).hasSize(50);
+        assertThat(trustManager.getAcceptedIssuers()).usingElementComparator(new Comparator<X509Certificate>() {
+
+            @Override
+            public int compare(X509Certificate o1, X509Certificate o2) {
+                return o1 == o2 ? 0 : 1;
+            }
+
+        }).contains(previous);
+    }
+
+    @Test
+    public void skipsReorderedCertificates() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        FileWatchingX509ExtendedTrustManager trustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+
+        List<PemObject> pemObjects = PemReader.read(watchedCertificates);
+        Path reordered = watchedCertificates.resolveSibling("reordered.pem");
+        try (Writer out = Files.newBufferedWriter(reordered, StandardCharsets.US_ASCII)) {
+            for (int i = pemObjects.size() - 1; i >= 0; i--) {
+                out.write(String.format("-----BEGIN CERTIFICATE-----%n%s%n-----END CERTIFICATE-----%n", Base64.getMimeEncoder().encodeToString(pemObjects.get(i).getContent())));
+            }
+        }
+        Files.move(reordered, watchedCertificates, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(trustManager.reload()).isFalse();
+        assertThat(trustManager.getAcceptedIssuers()).hasSize(48);
+    }
+
+    @Test
+    public void skipsUnchangedContent() throws IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        FileWatchingX509ExtendedTrustManager trustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(trustManager.reload()).isFalse();
+    }
+
     @Test
     public void watchesWatchedFile() throws IOException, InterruptedException, NoSuchAlgorithmException {
         Path watchedCertificates = getWatchedFile();
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class FingerprintTest {
+
+    @Test
+    public void equalContent() {
+        Fingerprint fingerprint1 = Fingerprint.of("test-content".getBytes(StandardCharsets.UTF_8));
+        Fingerprint fingerprint2 = Fingerprint.of("test-content".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(fingerprint1).isEqualTo(fingerprint2);
+        assertThat(fingerprint1.hashCode()).isEqualTo(fingerprint2.hashCode());
+    }
+
+    @Test
+    public void differentContent() {
+        assertThat(Fingerprint.of("test-content-1".getBytes(StandardCharsets.UTF_8))).isNotEqualTo(Fingerprint.of("test-content-2".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void string() {
+        assertThat(Fingerprint.of("abc".getBytes(StandardCharsets.UTF_8))).hasToString("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public final class InMemoryKeyStoreSpiTest {
+
+    @Test
+    public void certificateEntry() throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException {
+        X509Certificate certificate = X509CertificateFactory.generate(Paths.get("src/test/resources/client-certificates-1.pem")).get(0);
+
+        KeyStore keyStore = KeyStoreEntryCollector.identity();
+        keyStore.setCertificateEntry("test-alias", certificate);
+
+        assertThat(keyStore.getType()).isEqualTo(InMemoryKeyStoreSpi.TYPE);
+        assertThat(Collections.list(keyStore.aliases())).containsExactly("test-alias");
+        assertThat(keyStore.isCertificateEntry("test-alias")).isTrue();
+        assertThat(keyStore.isKeyEntry("test-alias")).isFalse();
+        assertThat(keyStore.getCertificate("test-alias")).isSameAs(certificate);
+        assertThat(keyStore.getCertificateAlias(certificate)).isEqualTo("test-alias");
+    }
+
+    @Test
+    public void keyEntry() throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, UnrecoverableKeyException {
+        PrivateKey privateKey = PrivateKeyFactory.generate(Paths.get("src/test/resources/client-private-key-1.pem"));
+        List<X509Certificate> certificates = X509CertificateFactory.generate(Paths.get("src/test/resources/client-certificates-1.pem"));
+
+        KeyStore keyStore = KeyStoreEntryCollector.identity();
+        keyStore.setKeyEntry("test-alias", privateKey, new char[0], certificates.toArray(new Certificate[0]));
+
+        assertThat(keyStore.isKeyEntry("test-alias")).isTrue();
+        assertThat(keyStore.isCertificateEntry("test-alias")).isFalse();
+        assertThat(keyStore.getKey("test-alias", null)).isSameAs(privateKey);
+        assertThat(keyStore.getCertificate("test-alias")).isSameAs(certificates.get(0));
+        assertThat(keyStore.getCertificateChain("test-alias")).containsExactlyElementsOf(certificates);
+    }
+
+    @Test
+    public void keyManagerFactory() throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, UnrecoverableKeyException {
+        PrivateKey privateKey = PrivateKeyFactory.generate(Paths.get("src/test/resources/client-private-key-1.pem"));
+        List<X509Certificate> certificates = X509CertificateFactory.generate(Paths.get("src/test/resources/client-certificates-1.pem"));
+
+        KeyStore keyStore = KeyStoreEntryCollector.accumulate(KeyStoreEntryCollector.identity(), privateKey, new char[0], certificates.toArray(new Certificate[0]));
+
+        for (String algorithm : new String[]{"SunX509", "NewSunX509"}) {
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(algorithm);
+            keyManagerFactory.init(keyStore, new char[0]);
+
+            X509KeyManager keyManager = (X509KeyManager) keyManagerFactory.getKeyManagers()[0];
+            String alias = keyManager.getClientAliases("RSA", null)[0];
+
+            assertThat(keyManager.getPrivateKey(alias)).isSameAs(privateKey);
+        }
+    }
+
+    @Test
+    public void loadStream() throws KeyStoreException, CertificateException, NoSuchAlgorithmException {
+        try {
+            InMemoryKeyStoreSpi.newKeyStore().load(new ByteArrayInputStream(new byte[0]), null);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessage("CloudFoundryContainer KeyStores cannot be loaded from a stream");
+        }
+    }
+
+    @Test
+    public void storeStream() throws KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+        KeyStore keyStore = InMemoryKeyStoreSpi.newKeyStore();
+        keyStore.load(null, null);
+
+        try {
+            keyStore.store(new ByteArrayOutputStream(), null);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException e) {
+            assertThat(e).hasMessage("CloudFoundryContainer KeyStores cannot be stored");
+        }
+    }
+
+    @Test
+    public void trustManagerFactory() throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException {
+        KeyStore keyStore = KeyStoreEntryCollector.identity();
+        for (X509Certificate certificate : X509CertificateFactory.generate(Paths.get("src/test/resources/server-certificates-48.pem"))) {
+            KeyStoreEntryCollector.accumulate(keyStore, certificate);
+        }
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("PKIX");
+        trustManagerFactory.init(keyStore);
+
+        assertThat(((X509TrustManager) trustManagerFactory.getTrustManagers()[0]).getAcceptedIssuers()).hasSize(48);
+    }
+
+}
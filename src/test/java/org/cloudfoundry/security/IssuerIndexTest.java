@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.cloudfoundry.security.DelegatingX509ExtendedTrustManagerTest.getCertificate;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class IssuerIndexTest {
+
+    private final X509TrustManager trustManager1 = mock(X509TrustManager.class);
+
+    private final X509TrustManager trustManager2 = mock(X509TrustManager.class);
+
+    @Test
+    public void complete() throws CertificateException, IOException {
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")});
+
+        IssuerIndex issuerIndex = new IssuerIndex(new X509TrustManager[]{this.trustManager1, this.trustManager2}, 0);
+
+        assertThat(issuerIndex.isComplete()).isTrue();
+        assertThat(issuerIndex.getTrustManager(new X509Certificate[]{getCertificate("src/test/resources/client-certificates-ec.pem")})).isEqualTo(IssuerIndex.UNKNOWN);
+    }
+
+    @Test
+    public void firstTrustManagerWins() throws CertificateException, IOException {
+        X509Certificate certificate = getCertificate("src/test/resources/identities/alpha.crt");
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{certificate});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{certificate});
+
+        IssuerIndex issuerIndex = new IssuerIndex(new X509TrustManager[]{this.trustManager1, this.trustManager2}, 0);
+
+        assertThat(issuerIndex.getTrustManager(new X509Certificate[]{certificate})).isEqualTo(0);
+    }
+
+    @Test
+    public void incomplete() throws CertificateException, IOException {
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")});
+
+        IssuerIndex issuerIndex = new IssuerIndex(new X509TrustManager[]{this.trustManager1, this.trustManager2}, 0);
+
+        assertThat(issuerIndex.isComplete()).isFalse();
+    }
+
+    @Test
+    public void routesByIssuer() throws CertificateException, IOException {
+        when(this.trustManager1.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")});
+        when(this.trustManager2.getAcceptedIssuers()).thenReturn(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")});
+
+        IssuerIndex issuerIndex = new IssuerIndex(new X509TrustManager[]{this.trustManager1, this.trustManager2}, 0);
+
+        assertThat(issuerIndex.getTrustManager(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")})).isEqualTo(0);
+        assertThat(issuerIndex.getTrustManager(new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")})).isEqualTo(1);
+        assertThat(issuerIndex.getTrustManager(new X509Certificate[]{getCertificate("src/test/resources/identities/gamma.crt")})).isEqualTo(0);
+    }
+
+}
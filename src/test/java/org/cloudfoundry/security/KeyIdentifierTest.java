@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.cloudfoundry.security.DelegatingX509ExtendedTrustManagerTest.getCertificate;
+import static org.mockito.Mockito.mock;
+
+public final class KeyIdentifierTest {
+
+    @Test
+    public void authorityMatchesIssuerSubject() throws CertificateException, IOException {
+        X509Certificate certificate = getCertificate("src/test/resources/identities/alpha.crt");
+
+        assertThat(KeyIdentifier.ofAuthority(certificate)).isEqualTo(KeyIdentifier.ofSubject(certificate));
+    }
+
+    @Test
+    public void differentKeys() throws CertificateException, IOException {
+        assertThat(KeyIdentifier.ofSubject(getCertificate("src/test/resources/identities/alpha.crt")))
+            .isNotEqualTo(KeyIdentifier.ofSubject(getCertificate("src/test/resources/identities/gamma.crt")));
+    }
+
+    @Test
+    public void noExtension() {
+        X509Certificate certificate = mock(X509Certificate.class);
+
+        assertThat(KeyIdentifier.ofAuthority(certificate)).isNull();
+        assertThat(KeyIdentifier.ofSubject(certificate)).isNull();
+    }
+
+}
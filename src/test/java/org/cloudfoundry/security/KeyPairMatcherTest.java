@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class KeyPairMatcherTest {
+
+    @Test
+    public void ec() throws CertificateException, IOException {
+        assertThat(KeyPairMatcher.matches(getPrivateKey("client-private-key-ec.pem"), getPublicKey("client-certificates-ec.pem"))).isTrue();
+    }
+
+    @Test
+    public void ecMismatch() throws CertificateException, IOException {
+        assertThat(KeyPairMatcher.matches(getPrivateKey("client-private-key-ec.pem"), getPublicKey("client-certificates-1.pem"))).isFalse();
+    }
+
+    @Test
+    public void rsa() throws CertificateException, IOException {
+        assertThat(KeyPairMatcher.matches(getPrivateKey("client-private-key-1.pem"), getPublicKey("client-certificates-1.pem"))).isTrue();
+    }
+
+    @Test
+    public void rsaMismatch() throws CertificateException, IOException {
+        assertThat(KeyPairMatcher.matches(getPrivateKey("client-private-key-1.pem"), getPublicKey("client-certificates-2.pem"))).isFalse();
+    }
+
+    private PrivateKey getPrivateKey(String name) throws IOException {
+        return PrivateKeyFactory.generate(getPath(name));
+    }
+
+    private Path getPath(String name) {
+        return Paths.get("src/test/resources", name);
+    }
+
+    private PublicKey getPublicKey(String name) throws CertificateException, IOException {
+        return X509CertificateFactory.generate(getPath(name)).get(0).getPublicKey();
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs tests annotated with {@link Enabled} with the {@link FileWatcher} in {@code polling} mode and an interval that never elapses, so that a test drives reloads itself without the watcher
+ * reloading concurrently.  The properties are cleared after each test, whether it passes or not.
+ */
+final class ManualReload implements TestRule {
+
+    @Override
+    public Statement apply(final Statement base, Description description) {
+        if (description.getAnnotation(Enabled.class) == null) {
+            return base;
+        }
+
+        return new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                System.setProperty(FileWatcher.MODE, "polling");
+                System.setProperty(FileWatcher.POLLING_INTERVAL, String.valueOf(Integer.MAX_VALUE));
+                try {
+                    base.evaluate();
+                } finally {
+                    System.clearProperty(FileWatcher.MODE);
+                    System.clearProperty(FileWatcher.POLLING_INTERVAL);
+                }
+            }
+
+        };
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface Enabled {
+
+    }
+
+}
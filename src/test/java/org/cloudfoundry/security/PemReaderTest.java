@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public final class PemReaderTest {
+
+    @Test
+    public void decodesContent() {
+        byte[] content = "test-content-that-is-long-enough-to-wrap-across-more-than-one-line-of-base64".getBytes(StandardCharsets.US_ASCII);
+        String encoded = Base64.getMimeEncoder(16, new byte[]{'\r', '\n'}).encodeToString(content);
+
+        List<PemObject> pemObjects = PemReader.read("test", String.format("-----BEGIN TEST-----\r\n%s\r\n-----END TEST-----\r\n", encoded).getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(pemObjects).hasSize(1);
+        assertThat(pemObjects.get(0).getType()).isEqualTo("TEST");
+        assertThat(pemObjects.get(0).getContent()).isEqualTo(content);
+    }
+
+    @Test
+    public void fingerprintsContent() throws IOException {
+        for (PemObject pemObject : PemReader.read(Paths.get("src/test/resources/server-certificates-48.pem"))) {
+            Fingerprint fingerprint = pemObject.getFingerprint();
+            assertThat(fingerprint).isEqualTo(Fingerprint.of(pemObject.getContent()));
+        }
+    }
+
+    @Test
+    public void ignoresTextBetweenBlocks() {
+        String content = "# comment\n-----BEGIN A-----\nAAEC\n-----END A-----\nSubject: test\n-----BEGIN B-----\nAw==\n-----END B-----\n";
+
+        List<PemObject> pemObjects = PemReader.read("test", content.getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(pemObjects).hasSize(2);
+        assertThat(pemObjects.get(0).getType()).isEqualTo("A");
+        assertThat(pemObjects.get(1).getType()).isEqualTo("B");
+        assertThat(pemObjects.get(0).getContent()).containsExactly(0, 1, 2);
+        assertThat(pemObjects.get(1).getContent()).containsExactly(3);
+    }
+
+    @Test
+    public void mismatchedFooter() {
+        try {
+            PemReader.read("test", "-----BEGIN A-----\nAAEC\n-----END B-----\n".getBytes(StandardCharsets.US_ASCII));
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("test contains a PEM block without a matching footer: A");
+        }
+    }
+
+    @Test
+    public void readsBundle() throws IOException {
+        assertThat(PemReader.read(Paths.get("src/test/resources/server-certificates-173.pem"))).hasSize(173);
+    }
+
+    @Test
+    public void unsupportedContent() {
+        try {
+            PemReader.read("test", "-----BEGIN A-----\nProc-Type: 4,ENCRYPTED\nAAEC\n-----END A-----\n".getBytes(StandardCharsets.US_ASCII));
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("test contains a PEM block with unsupported content: A");
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class PollingFileWatcherTest {
+
+    @Test
+    public void detectsChange() throws IOException, InterruptedException {
+        Path source = Files.createTempDirectory("polling-file-watcher-test-").resolve("source.pem");
+        Files.write(source, "first".getBytes(StandardCharsets.US_ASCII));
+
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch changed = new CountDownLatch(1);
+
+        PollingFileWatcher.watch(source, new CountingCallback(invocations, changed), 10);
+
+        Thread.sleep(100);
+        assertThat(invocations.get()).isEqualTo(0);
+
+        Files.write(source, "first-and-second".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(changed.await(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(100);
+        assertThat(invocations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void detectsChangeInDirectory() throws IOException, InterruptedException {
+        Path source = Files.createTempDirectory("polling-file-watcher-test-");
+        Path entry = source.resolve("entry.pem");
+        Files.write(entry, "first".getBytes(StandardCharsets.US_ASCII));
+
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch changed = new CountDownLatch(1);
+
+        PollingFileWatcher.watch(source, new CountingCallback(invocations, changed), 10);
+
+        Thread.sleep(100);
+        assertThat(invocations.get()).isEqualTo(0);
+
+        Files.write(entry, "first-and-second".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(changed.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void detectsDeletion() throws IOException, InterruptedException {
+        Path source = Files.createTempDirectory("polling-file-watcher-test-").resolve("source.pem");
+        Files.write(source, "first".getBytes(StandardCharsets.US_ASCII));
+
+        CountDownLatch changed = new CountDownLatch(1);
+
+        PollingFileWatcher.watch(source, new CountingCallback(new AtomicInteger(), changed), 10);
+        Files.delete(source);
+
+        assertThat(changed.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static final class CountingCallback implements Runnable {
+
+        private final CountDownLatch changed;
+
+        private final AtomicInteger invocations;
+
+        private CountingCallback(AtomicInteger invocations, CountDownLatch changed) {
+            this.changed = changed;
+            this.invocations = invocations;
+        }
+
+        @Override
+        public void run() {
+            this.invocations.incrementAndGet();
+            this.changed.countDown();
+        }
+
+    }
+
+}
@@ -21,6 +21,8 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.security.interfaces.ECPrivateKey;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
@@ -39,6 +41,20 @@ public final class PrivateKeyFactoryTest {
         }
     }
 
+    @Test
+    public void pkcs1AndPkcs8Equivalent() throws IOException {
+        PrivateKey pkcs1 = PrivateKeyFactory.generate(Paths.get("src/test/resources/client-private-key-1.pem"));
+        PrivateKey pkcs8 = PrivateKeyFactory.generate(Paths.get("src/test/resources/client-private-key-1-pkcs8.pem"));
+
+        assertThat(pkcs8.getAlgorithm()).isEqualTo("RSA");
+        assertThat(pkcs8).isEqualTo(pkcs1);
+    }
+
+    @Test
+    public void sec1() throws IOException {
+        assertThat(PrivateKeyFactory.generate(Paths.get("src/test/resources/client-private-key-ec.pem"))).isInstanceOf(ECPrivateKey.class);
+    }
+
     @Test
     public void test() throws IOException {
         assertThat(PrivateKeyFactory.generate(Paths.get("src/test/resources/client-private-key-1.pem"))).isNotNull();
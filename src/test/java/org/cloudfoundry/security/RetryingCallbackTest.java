@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class RetryingCallbackTest {
+
+    @Test
+    public void givesUpAfterAttempts() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch invoked = new CountDownLatch(3);
+
+        new RetryingCallback(new FailingCallback(invocations, invoked, Integer.MAX_VALUE), 2, 10).run();
+
+        assertThat(invoked.await(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(500);
+        assertThat(invocations.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void retriesUntilSuccess() throws InterruptedException {
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch invoked = new CountDownLatch(3);
+
+        new RetryingCallback(new FailingCallback(invocations, invoked, 2), 5, 10).run();
+
+        assertThat(invoked.await(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(500);
+        assertThat(invocations.get()).isEqualTo(3);
+    }
+
+    private static final class FailingCallback implements Runnable {
+
+        private final int failures;
+
+        private final CountDownLatch invoked;
+
+        private final AtomicInteger invocations;
+
+        private FailingCallback(AtomicInteger invocations, CountDownLatch invoked, int failures) {
+            this.failures = failures;
+            this.invocations = invocations;
+            this.invoked = invoked;
+        }
+
+        @Override
+        public void run() {
+            int invocation = this.invocations.incrementAndGet();
+            this.invoked.countDown();
+
+            if (invocation <= this.failures) {
+                throw new IllegalStateException("test-failure");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.cloudfoundry.security.DelegatingX509ExtendedTrustManagerTest.getCertificate;
+
+public final class RevocationListTest extends AbstractLoggingTest {
+
+    @Test
+    public void acceptsUnrevokedCertificate() throws CertificateException, IOException {
+        Path revocations = getWorkDirectory().resolve("alpha.crl");
+        Files.copy(Paths.get("src/test/resources/revocations/alpha.crl"), revocations);
+
+        RevocationList revocationList = new RevocationList(revocations);
+
+        revocationList.check(new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")});
+    }
+
+    @Test
+    public void reloadsDirectory() throws CertificateException, IOException {
+        Path revocations = getWorkDirectory();
+        Files.copy(Paths.get("src/test/resources/revocations/alpha.crl"), revocations.resolve("alpha.crl"));
+
+        RevocationList revocationList = new RevocationList(revocations);
+        X509Certificate[] chain = new X509Certificate[]{getCertificate("src/test/resources/revocations/revoked.crt"), getCertificate("src/test/resources/identities/alpha.crt")};
+
+        try {
+            revocationList.check(chain);
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("CN=revoked.alpha.example.com has been revoked");
+        }
+
+        Files.delete(revocations.resolve("alpha.crl"));
+        assertThat(revocationList.reload()).isTrue();
+        assertThat(revocationList.getGeneration()).isEqualTo(1);
+
+        revocationList.check(chain);
+    }
+
+    @Test
+    public void rejectsRevokedCertificate() throws CertificateException, IOException {
+        Path revocations = getWorkDirectory().resolve("alpha.crl");
+        Files.copy(Paths.get("src/test/resources/revocations/alpha.crl"), revocations);
+
+        RevocationList revocationList = new RevocationList(revocations);
+
+        try {
+            revocationList.check(new X509Certificate[]{getCertificate("src/test/resources/revocations/revoked.crt")});
+            failBecauseExceptionWasNotThrown(CertificateException.class);
+        } catch (CertificateException e) {
+            assertThat(e).hasMessage("CN=revoked.alpha.example.com has been revoked");
+        }
+    }
+
+    @Test
+    public void skipsUnchangedContent() throws IOException {
+        Path revocations = getWorkDirectory().resolve("alpha.crl");
+        Files.copy(Paths.get("src/test/resources/revocations/alpha.crl"), revocations);
+
+        RevocationList revocationList = new RevocationList(revocations);
+
+        assertThat(revocationList.reload()).isFalse();
+        assertThat(revocationList.getGeneration()).isEqualTo(0);
+    }
+
+    private Path getWorkDirectory() throws IOException {
+        return Files.createTempDirectory("revocation-list-test-");
+    }
+
+}
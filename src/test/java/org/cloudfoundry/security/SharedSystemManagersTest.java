@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.TrustManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public final class SharedSystemManagersTest {
+
+    @Test
+    public void ignoresTrustStorePassword() throws KeyStoreException {
+        TrustManager[] trustManagers1 = SharedSystemManagers.getTrustManagers("SunX509");
+
+        TrustManager[] trustManagers2;
+        System.setProperty("javax.net.ssl.trustStorePassword", "test-password");
+        try {
+            trustManagers2 = SharedSystemManagers.getTrustManagers("SunX509");
+        } finally {
+            System.clearProperty("javax.net.ssl.trustStorePassword");
+        }
+
+        assertThat(trustManagers1).isSameAs(trustManagers2);
+    }
+
+    @Test
+    public void sharesKeyManagers() throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException {
+        assertThat(SharedSystemManagers.getKeyManagers("NewSunX509")).isSameAs(SharedSystemManagers.getKeyManagers("NewSunX509"));
+        assertThat(SharedSystemManagers.getKeyManagers("NewSunX509")).isNotSameAs(SharedSystemManagers.getKeyManagers("SunX509"));
+    }
+
+    @Test
+    public void sharesTrustManagersPerTrustStore() throws KeyStoreException {
+        TrustManager[] trustManagers1 = SharedSystemManagers.getTrustManagers("PKIX");
+        TrustManager[] trustManagers2 = SharedSystemManagers.getTrustManagers("PKIX");
+
+        TrustManager[] trustManagers3;
+        System.setProperty("javax.net.ssl.trustStoreType", "JKS");
+        try {
+            trustManagers3 = SharedSystemManagers.getTrustManagers("PKIX");
+        } finally {
+            System.clearProperty("javax.net.ssl.trustStoreType");
+        }
+
+        assertThat(trustManagers1).isSameAs(trustManagers2);
+        assertThat(trustManagers1).isNotSameAs(trustManagers3);
+    }
+
+    @Test
+    public void sharesTrustManagersUntilTrustStoreChanges() throws IOException, KeyStoreException {
+        Path trustStore = Files.createTempDirectory("shared-system-managers-test-").resolve("cacerts");
+        Files.copy(Paths.get(System.getProperty("java.home"), "lib", "security", "cacerts"), trustStore);
+
+        System.setProperty("javax.net.ssl.trustStore", trustStore.toString());
+        try {
+            TrustManager[] trustManagers1 = SharedSystemManagers.getTrustManagers("PKIX");
+            TrustManager[] trustManagers2 = SharedSystemManagers.getTrustManagers("PKIX");
+            Files.setLastModifiedTime(trustStore, FileTime.fromMillis(Files.getLastModifiedTime(trustStore).toMillis() + 60_000));
+            TrustManager[] trustManagers3 = SharedSystemManagers.getTrustManagers("PKIX");
+            TrustManager[] trustManagers4 = SharedSystemManagers.getTrustManagers("PKIX");
+
+            assertThat(trustManagers1).isSameAs(trustManagers2);
+            assertThat(trustManagers1).isNotSameAs(trustManagers3);
+            assertThat(trustManagers3).isSameAs(trustManagers4);
+        } finally {
+            System.clearProperty("javax.net.ssl.trustStore");
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class SniIndexTest {
+
+    @Test
+    public void exact() throws IOException, NoSuchAlgorithmException {
+        X509ExtendedKeyManager keyManager = getKeyManager();
+        SniIndex sniIndex = new SniIndex(keyManager);
+
+        assertThat(getSubject(keyManager, sniIndex.getAlias("RSA", getSession("Alpha.Example.com")))).isEqualTo("CN=alpha.example.com");
+        assertThat(getSubject(keyManager, sniIndex.getAlias("EC", getSession("alpha.example.com")))).isEqualTo("CN=alpha.example.com");
+        assertThat(keyManager.getPrivateKey(sniIndex.getAlias("EC", getSession("alpha.example.com"))).getAlgorithm()).isEqualTo("EC");
+    }
+
+    @Test
+    public void keyExchangeKeyType() throws IOException, NoSuchAlgorithmException {
+        X509ExtendedKeyManager keyManager = getKeyManager();
+        SniIndex sniIndex = new SniIndex(keyManager);
+
+        assertThat(keyManager.getPrivateKey(sniIndex.getAlias("EC_EC", getSession("alpha.example.com"))).getAlgorithm()).isEqualTo("EC");
+    }
+
+    @Test
+    public void noServerName() throws IOException, NoSuchAlgorithmException {
+        SniIndex sniIndex = new SniIndex(getKeyManager());
+
+        ExtendedSSLSession session = mock(ExtendedSSLSession.class);
+        when(session.getRequestedServerNames()).thenReturn(Collections.<SNIServerName>emptyList());
+
+        assertThat(sniIndex.getAlias("RSA", session)).isNull();
+        assertThat(sniIndex.getAlias("RSA", mock(SSLSession.class))).isNull();
+        assertThat(sniIndex.getAlias("RSA", null)).isNull();
+    }
+
+    @Test
+    public void unknown() throws IOException, NoSuchAlgorithmException {
+        SniIndex sniIndex = new SniIndex(getKeyManager());
+
+        assertThat(sniIndex.getAlias("RSA", getSession("gamma.example.com"))).isNull();
+        assertThat(sniIndex.getAlias("EC", getSession("test.beta.example.com"))).isNull();
+        assertThat(sniIndex.getAlias("RSA", getSession("beta.example.com"))).isNull();
+    }
+
+    @Test
+    public void wildcard() throws IOException, NoSuchAlgorithmException {
+        X509ExtendedKeyManager keyManager = getKeyManager();
+        SniIndex sniIndex = new SniIndex(keyManager);
+
+        assertThat(getSubject(keyManager, sniIndex.getAlias("RSA", getSession("test.beta.example.com")))).isEqualTo("CN=beta.example.com");
+    }
+
+    private X509ExtendedKeyManager getKeyManager() throws IOException, NoSuchAlgorithmException {
+        Path identities = Files.createTempDirectory("sni-index-test-");
+
+        for (String name : new String[]{"alpha", "beta", "gamma"}) {
+            Files.copy(Paths.get("src/test/resources/identities", name + ".crt"), identities.resolve(name + ".crt"));
+            Files.copy(Paths.get("src/test/resources/identities", name + ".key"), identities.resolve(name + ".key"));
+        }
+
+        return new FileWatchingX509ExtendedKeyManager(null, null, identities, KeyManagerFactory.getInstance("NewSunX509"));
+    }
+
+    private SSLSession getSession(String hostName) {
+        ExtendedSSLSession session = mock(ExtendedSSLSession.class);
+        when(session.getRequestedServerNames()).thenReturn(Collections.<SNIServerName>singletonList(new SNIHostName(hostName)));
+        return session;
+    }
+
+    private String getSubject(X509ExtendedKeyManager keyManager, String alias) {
+        return keyManager.getCertificateChain(alias)[0].getSubjectX500Principal().getName();
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public final class ThreadsTest {
+
+    private static final String MULTI_RELEASE = "org.cloudfoundry.security.test.multi.release";
+
+    private static final Runnable NOOP = new Runnable() {
+
+        @Override
+        public void run() {
+        }
+
+    };
+
+    @Test
+    public void newThread() {
+        Thread thread = Threads.newThread("test-name", NOOP);
+
+        assertThat(thread.getName()).isEqualTo("test-name");
+        assertThat(thread.isDaemon()).isTrue();
+    }
+
+    /**
+     * Only runs against the packaged multi-release JAR, as the versioned classes are not visible when testing against the classes directory.
+     */
+    @Test
+    public void newThreadVirtual() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        assumeTrue(Boolean.getBoolean(MULTI_RELEASE));
+
+        Thread thread = Threads.newThread("test-name", NOOP);
+
+        assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(true);
+        assertThat(Thread.class.getMethod("isVirtual").invoke(Threads.newThreadFactory("test-prefix").newThread(NOOP))).isEqualTo(true);
+    }
+
+    @Test
+    public void newThreadFactory() {
+        ThreadFactory threadFactory = Threads.newThreadFactory("test-prefix");
+
+        assertThat(threadFactory.newThread(NOOP).getName()).isEqualTo("test-prefix-0");
+        assertThat(threadFactory.newThread(NOOP).getName()).isEqualTo("test-prefix-1");
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class UnifiedX509ExtendedTrustManagerTest extends AbstractLoggingTest {
+
+    private final X509ExtendedTrustManager systemTrustManager = mock(X509ExtendedTrustManager.class);
+
+    @Test
+    public void deduplicatesAnchors() throws CertificateException, IOException, NoSuchAlgorithmException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        List<X509Certificate> systemCertificates = X509CertificateFactory.generate(Paths.get("src/test/resources/server-certificates-48.pem"));
+        when(this.systemTrustManager.getAcceptedIssuers()).thenReturn(systemCertificates.toArray(new X509Certificate[0]));
+
+        UnifiedX509ExtendedTrustManager trustManager = new UnifiedX509ExtendedTrustManager(this.systemTrustManager,
+            new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX")), TrustManagerFactory.getInstance("PKIX"));
+
+        assertThat(trustManager.getAcceptedIssuers()).hasSize(48);
+    }
+
+    @Test
+    public void rebuildsOnContainerChange() throws CertificateException, ExecutionException, InterruptedException, IOException, NoSuchAlgorithmException, TimeoutException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        List<X509Certificate> systemCertificates = X509CertificateFactory.generate(Paths.get("src/test/resources/server-certificates-48.pem"));
+        when(this.systemTrustManager.getAcceptedIssuers()).thenReturn(systemCertificates.toArray(new X509Certificate[0]));
+
+        FileWatchingX509ExtendedTrustManager containerTrustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+        UnifiedX509ExtendedTrustManager trustManager = new UnifiedX509ExtendedTrustManager(this.systemTrustManager, containerTrustManager, TrustManagerFactory.getInstance("PKIX"));
+        long generation = trustManager.getGeneration();
+
+        Files.copy(Paths.get("src/test/resources/server-certificates-173.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+        containerTrustManager.reload();
+        awaitScheduler();
+
+        assertThat(trustManager.getGeneration()).isGreaterThan(generation);
+        assertThat(trustManager.getAcceptedIssuers()).hasSize(179);
+    }
+
+    @Test
+    public void retainsGenerationOnRebuildFailure() throws CertificateException, ExecutionException, InterruptedException, IOException, NoSuchAlgorithmException, TimeoutException {
+        Path watchedCertificates = getWatchedFile();
+        Files.copy(Paths.get("src/test/resources/server-certificates-48.pem"), watchedCertificates);
+
+        List<X509Certificate> systemCertificates = X509CertificateFactory.generate(Paths.get("src/test/resources/server-certificates-48.pem"));
+        when(this.systemTrustManager.getAcceptedIssuers()).thenReturn(systemCertificates.toArray(new X509Certificate[0])).thenThrow(new IllegalStateException("test-message"));
+
+        FileWatchingX509ExtendedTrustManager containerTrustManager = new FileWatchingX509ExtendedTrustManager(watchedCertificates, TrustManagerFactory.getInstance("PKIX"));
+        UnifiedX509ExtendedTrustManager trustManager = new UnifiedX509ExtendedTrustManager(this.systemTrustManager, containerTrustManager, TrustManagerFactory.getInstance("PKIX"));
+        long generation = trustManager.getGeneration();
+
+        Files.copy(Paths.get("src/test/resources/server-certificates-173.pem"), watchedCertificates, StandardCopyOption.REPLACE_EXISTING);
+        containerTrustManager.reload();
+        awaitScheduler();
+
+        assertThat(trustManager.getGeneration()).isEqualTo(generation);
+        assertThat(trustManager.getAcceptedIssuers()).hasSize(48);
+    }
+
+    /**
+     * Waits for the tasks already submitted to the single-threaded {@link Scheduler} to complete.
+     */
+    private static void awaitScheduler() throws ExecutionException, InterruptedException, TimeoutException {
+        Scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+            }
+
+        }, 0, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+    }
+
+    private Path getWatchedFile() throws IOException {
+        Path workDirectory = Files.createTempDirectory("unified-trust-manager-test-");
+        return workDirectory.resolve("certificates.pem");
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.cloudfoundry.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.cloudfoundry.security.DelegatingX509ExtendedTrustManagerTest.getCertificate;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class ValidatedChainCacheTest {
+
+    private final ValidatedChainCache chainCache = new ValidatedChainCache(1, 60_000, 10_000);
+
+    @Test
+    public void containsRejectedChain() throws CertificateException, IOException {
+        X509Certificate[] chain = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        ValidatedChainCache.Key key = this.chainCache.getKey(chain, "RSA", false);
+
+        assertThat(this.chainCache.containsRejection(key, 0)).isFalse();
+        this.chainCache.putRejection(key, 0);
+        assertThat(this.chainCache.containsRejection(key, 0)).isTrue();
+        assertThat(this.chainCache.contains(key, 0)).isFalse();
+
+        assertThat(this.chainCache.containsRejection(key, 1)).isFalse();
+    }
+
+    @Test
+    public void containsValidatedChain() throws CertificateException, IOException {
+        X509Certificate[] chain = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        ValidatedChainCache.Key key = this.chainCache.getKey(chain, "RSA", true);
+
+        assertThat(this.chainCache.contains(key, 0)).isFalse();
+        this.chainCache.put(key, chain, 0);
+        assertThat(this.chainCache.contains(key, 0)).isTrue();
+
+        assertThat(this.chainCache.getHits()).isEqualTo(1);
+        assertThat(this.chainCache.getMisses()).isEqualTo(1);
+        assertThat(this.chainCache.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void containsValidatedIdentity() throws CertificateException, IOException {
+        X509Certificate leaf = getCertificate("src/test/resources/identities/alpha.crt");
+        ValidatedChainCache.IdentityKey key = this.chainCache.getIdentityKey(leaf, getSslSession("Alpha.Example.com"), "HTTPS", true);
+
+        assertThat(this.chainCache.containsIdentity(key, 0)).isFalse();
+        this.chainCache.putIdentity(key, leaf, 0);
+
+        assertThat(this.chainCache.containsIdentity(this.chainCache.getIdentityKey(leaf, getSslSession("alpha.example.com"), "HTTPS", true), 0)).isTrue();
+        assertThat(this.chainCache.containsIdentity(this.chainCache.getIdentityKey(leaf, getSslSession("beta.example.com"), "HTTPS", true), 0)).isFalse();
+        assertThat(this.chainCache.containsIdentity(this.chainCache.getIdentityKey(leaf, getSslSession("alpha.example.com"), "LDAPS", true), 0)).isFalse();
+    }
+
+    @Test
+    public void distinguishesDirection() throws CertificateException, IOException {
+        X509Certificate[] chain = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+
+        this.chainCache.put(this.chainCache.getKey(chain, "RSA", true), chain, 0);
+
+        assertThat(this.chainCache.contains(this.chainCache.getKey(chain, "RSA", false), 0)).isFalse();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws CertificateException, IOException {
+        ValidatedChainCache chainCache = new ValidatedChainCache(2, 60_000, 10_000);
+        X509Certificate[] chain1 = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        X509Certificate[] chain2 = new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")};
+
+        chainCache.put(chainCache.getKey(chain1, "RSA", true), chain1, 0);
+        chainCache.put(chainCache.getKey(chain2, "RSA", true), chain2, 0);
+        assertThat(chainCache.contains(chainCache.getKey(chain1, "RSA", true), 0)).isTrue();
+        chainCache.put(chainCache.getKey(chain1, "RSA", false), chain1, 0);
+
+        assertThat(chainCache.getEvictions()).isEqualTo(1);
+        assertThat(chainCache.contains(chainCache.getKey(chain1, "RSA", true), 0)).isTrue();
+        assertThat(chainCache.contains(chainCache.getKey(chain2, "RSA", true), 0)).isFalse();
+    }
+
+    @Test
+    public void evictsWhenFull() throws CertificateException, IOException {
+        X509Certificate[] chain1 = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        X509Certificate[] chain2 = new X509Certificate[]{getCertificate("src/test/resources/identities/beta.crt")};
+
+        this.chainCache.put(this.chainCache.getKey(chain1, "RSA", true), chain1, 0);
+        this.chainCache.put(this.chainCache.getKey(chain2, "RSA", true), chain2, 0);
+
+        assertThat(this.chainCache.getEvictions()).isEqualTo(1);
+        assertThat(this.chainCache.contains(this.chainCache.getKey(chain1, "RSA", true), 0)).isFalse();
+        assertThat(this.chainCache.contains(this.chainCache.getKey(chain2, "RSA", true), 0)).isTrue();
+    }
+
+    @Test
+    public void flushesOnNewGeneration() throws CertificateException, IOException {
+        X509Certificate[] chain = new X509Certificate[]{getCertificate("src/test/resources/identities/alpha.crt")};
+        ValidatedChainCache.Key key = this.chainCache.getKey(chain, "RSA", true);
+
+        this.chainCache.put(key, chain, 0);
+
+        assertThat(this.chainCache.contains(key, 1)).isFalse();
+        assertThat(this.chainCache.contains(key, 0)).isFalse();
+    }
+
+    @Test
+    public void ignoresEmptyChain() {
+        assertThat(this.chainCache.getKey(new X509Certificate[0], "RSA", true)).isNull();
+    }
+
+    @Test
+    public void ignoresExpiredChain() throws CertificateException, IOException {
+        X509Certificate[] chain = new X509Certificate[]{getCertificate("src/test/resources/client-certificates-1.pem")};
+        ValidatedChainCache.Key key = this.chainCache.getKey(chain, "RSA", false);
+
+        this.chainCache.put(key, chain, 0);
+
+        assertThat(this.chainCache.contains(key, 0)).isFalse();
+    }
+
+    private SSLSession getSslSession(String peerHost) {
+        SSLSession sslSession = mock(SSLSession.class);
+        when(sslSession.getPeerHost()).thenReturn(peerHost);
+        return sslSession;
+    }
+
+}
@@ -22,6 +22,9 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
@@ -35,6 +38,29 @@ public final class X509CertificateFactoryTest {
         assertThat(X509CertificateFactory.generate(Paths.get("src/test/resources/server-certificates-173.pem"))).hasSize(173);
     }
 
+    @Test
+    public void generateParallel() throws IOException, CertificateException {
+        Path path = Paths.get("src/test/resources/server-certificates-173.pem");
+        List<PemObject> pemObjects = PemReader.read(path);
+
+        List<X509Certificate> expected = X509CertificateFactory.generate(path, pemObjects);
+        assertThat(X509CertificateFactory.generateParallel(path, pemObjects)).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void generateParallelNonCertificate() throws IOException, CertificateException {
+        Path path = Paths.get("src/test/resources/server-certificates-173.pem");
+        List<PemObject> pemObjects = new ArrayList<>(PemReader.read(path));
+        pemObjects.add(100, new PemObject("PRIVATE KEY", new byte[0]));
+
+        try {
+            X509CertificateFactory.generateParallel(path, pemObjects);
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage(String.format("%s contains an artifact that is not a certificate: PRIVATE KEY", path));
+        }
+    }
+
     @Test
     public void generateOpenSslNonCertificate() throws IOException, CertificateException {
         Path path = Paths.get("src/test/resources/client-private-key-1.pem");